@@ -0,0 +1,67 @@
+package co.usc.lll;
+
+import co.usc.lll.asm.CodeBlock;
+import co.usc.lll.asm.EVMAssemblerHelper;
+import co.usc.lll.asm.OpCode;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AssemblerBenchmark {
+
+    @State(Scope.Thread)
+    public static class FixUpState {
+        @Param({"dispatcher", "constructs", "functions", "deep:200", "funcs:500", "macros:500", "seq:5000"})
+        public String program;
+
+        LLLNode node;
+        LLLCodeGenerator generator;
+        CodeBlock block;
+
+        @Setup(Level.Trial)
+        public void parse() throws IOException, LLLCompilationError {
+            node = new LLLParser().parse(BenchmarkSources.get(program));
+        }
+
+        // performFixUp() modifies the block, so every call needs a new one
+        @Setup(Level.Invocation)
+        public void generate() throws LLLCompilationError {
+            generator = new LLLCodeGenerator();
+            block = generator.generateLinkedCodeBlock(node);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class AppendState {
+        @Param({"1000", "100000"})
+        public int segments;
+
+        EVMAssemblerHelper helper = new EVMAssemblerHelper();
+    }
+
+    @Benchmark
+    public boolean performFixUp(FixUpState s) {
+        return s.generator.getHelper().performFixUp(s.block);
+    }
+
+    // Builds a block from many small ones, like codeSEQ does
+    @Benchmark
+    public byte[] append(AppendState s) {
+        CodeBlock block = new CodeBlock(null);
+        for (int i = 0; i < s.segments; i++) {
+            CodeBlock c = new CodeBlock(null);
+            c.startWrite();
+            c.writePushByte(i & 0xff);
+            c.write(OpCode.POP);
+            c.endWrite();
+            block.append(s.helper, c);
+        }
+        return block.getCode();
+    }
+}
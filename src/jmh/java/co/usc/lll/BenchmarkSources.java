@@ -0,0 +1,94 @@
+package co.usc.lll;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+// Programs used by the benchmarks. The corpus programs are checked in under
+// src/jmh/resources/corpus, the synthetic ones are generated to stress a single
+// part of the compiler.
+public class BenchmarkSources {
+
+    // A corpus program ("dispatcher") or a synthetic one with its size ("seq:5000")
+    public static String get(String spec) throws IOException {
+        int colon = spec.indexOf(':');
+        if (colon < 0)
+            return corpus(spec);
+        return get(spec.substring(0, colon), Integer.parseInt(spec.substring(colon + 1)));
+    }
+
+    public static String get(String name, int size) throws IOException {
+        if (name.equals("deep"))
+            return deep(size);
+        if (name.equals("funcs"))
+            return funcs(size);
+        if (name.equals("macros"))
+            return macros(size);
+        if (name.equals("seq"))
+            return seq(size);
+        return corpus(name);
+    }
+
+    public static String corpus(String name) throws IOException {
+        InputStream in = BenchmarkSources.class.getResourceAsStream("/corpus/" + name + ".lll");
+        if (in == null)
+            throw new IOException("Unknown benchmark program: " + name);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) > 0)
+                out.write(buf, 0, n);
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            in.close();
+        }
+    }
+
+    // Deeply nested expressions: (seq (when (= @0 0) (when ... [[i]] (add ...))))
+    public static String deep(int depth) {
+        StringBuilder sb = new StringBuilder("(seq\n");
+        for (int i = 0; i < depth; i++)
+            sb.append("(when (= @0 ").append(i).append(") ");
+        sb.append("[[0]] ");
+        for (int i = 0; i < depth; i++)
+            sb.append("(add ").append(i).append(' ');
+        sb.append("(calldataload 0)");
+        for (int i = 0; i < depth; i++)
+            sb.append(')');
+        for (int i = 0; i < depth; i++)
+            sb.append(')');
+        return sb.append("\n(stop))\n").toString();
+    }
+
+    // Many small functions, each one called once
+    public static String funcs(int count) {
+        StringBuilder sb = new StringBuilder("(seq\n");
+        for (int i = 0; i < count; i++)
+            sb.append("  (func f").append(i).append(" ($x $y) (with $z (add $x $y) (mul $z ").append(i).append(")))\n");
+        for (int i = 0; i < count; i++)
+            sb.append("  [[").append(i).append("]] (f").append(i).append(" (calldataload 0) ").append(i).append(")\n");
+        return sb.append("  (stop))\n").toString();
+    }
+
+    // Many constant and parametrized macros
+    public static String macros(int count) {
+        StringBuilder sb = new StringBuilder("(seq\n");
+        for (int i = 0; i < count; i++) {
+            sb.append("  (def 'k").append(i).append(' ').append(i * 32).append(")\n");
+            sb.append("  (def 'store").append(i).append(" ($v) (sstore k").append(i).append(" (add $v @@k").append(i).append(")))\n");
+        }
+        for (int i = 0; i < count; i++)
+            sb.append("  (store").append(i).append(" (calldataload k").append(i).append("))\n");
+        return sb.append("  (stop))\n").toString();
+    }
+
+    // One huge SEQ of simple statements
+    public static String seq(int count) {
+        StringBuilder sb = new StringBuilder("(seq\n");
+        for (int i = 0; i < count; i++)
+            sb.append("  [[").append(i).append("]] (add ").append(i).append(" (mul @0x20 3))\n");
+        return sb.append("  (stop))\n").toString();
+    }
+}
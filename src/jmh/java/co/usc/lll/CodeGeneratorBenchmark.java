@@ -0,0 +1,39 @@
+package co.usc.lll;
+
+import co.usc.lll.asm.CodeBlock;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodeGeneratorBenchmark {
+
+    @Param({"dispatcher", "constructs", "functions", "deep:200", "funcs:500", "macros:500", "seq:5000"})
+    public String program;
+
+    LLLNode node;
+
+    @Setup
+    public void setup() throws IOException, LLLCompilationError {
+        // the code generator does not modify the tree, so it is parsed only once
+        node = new LLLParser().parse(BenchmarkSources.get(program));
+    }
+
+    // code generation only, labels are not fixed up
+    @Benchmark
+    public CodeBlock generateLinkedCodeBlock() throws LLLCompilationError {
+        return new LLLCodeGenerator().generateLinkedCodeBlock(node);
+    }
+
+    // code generation, optimization and fix up
+    @Benchmark
+    public CodeBlock generateCodeBlock() throws LLLCompilationError {
+        return new LLLCodeGenerator().generateCodeBlock(node);
+    }
+}
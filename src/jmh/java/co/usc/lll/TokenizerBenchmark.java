@@ -0,0 +1,33 @@
+package co.usc.lll;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenizerBenchmark {
+
+    @Param({"dispatcher", "constructs", "functions", "deep:200", "funcs:500", "macros:500", "seq:5000"})
+    public String program;
+
+    String source;
+
+    @Setup
+    public void setup() throws IOException {
+        source = BenchmarkSources.get(program);
+    }
+
+    @Benchmark
+    public void nextToken(Blackhole bh) {
+        LLLTokenizer st = new LLLTokenizer(source);
+        while (st.hasMoreTokens())
+            bh.consume(st.nextToken());
+    }
+}
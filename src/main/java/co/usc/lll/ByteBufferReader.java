@@ -0,0 +1,95 @@
+package co.usc.lll;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Reads UTF-8 text from a ByteBuffer, usually a memory-mapped source file, so
+// that the file is never copied as a whole to the heap. ASCII bytes are copied
+// directly, the rest goes through a decoder. Invalid bytes are replaced, like
+// new String(bytes, UTF_8) does.
+public class ByteBufferReader extends Reader {
+    ByteBuffer in;
+    CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    boolean flushed;
+    // A char that did not fit in the last read: the second of a surrogate
+    // pair, when a single char was left for it
+    CharBuffer carry = CharBuffer.allocate(2);
+
+    public ByteBufferReader(ByteBuffer in) {
+        this.in = in;
+        carry.limit(0);
+    }
+
+    public static ByteBufferReader map(Path path) throws IOException {
+        return new ByteBufferReader(mapFile(path));
+    }
+
+    public static MappedByteBuffer mapFile(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Source file too large: " + path);
+            // the mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            channel.close();
+        }
+    }
+
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (in == null)
+            throw new IOException("Reader closed");
+        if (len == 0)
+            return 0;
+        int n = 0;
+        if (carry.hasRemaining())
+            cbuf[off + n++] = carry.get();
+        // ASCII fast path
+        while ((n < len) && (in.hasRemaining())) {
+            byte b = in.get();
+            if (b < 0) {
+                in.position(in.position() - 1);
+                break;
+            }
+            cbuf[off + n] = (char) b;
+            n++;
+        }
+        if ((n < len) && (in.hasRemaining())) {
+            CharBuffer out = CharBuffer.wrap(cbuf, off + n, len - n);
+            decoder.decode(in, out, true);
+            n = out.position() - off;
+            if ((n == 0) && (in.hasRemaining())) {
+                // one char left, and the next code point takes two
+                carry.clear();
+                decoder.decode(in, carry, true);
+                carry.flip();
+                cbuf[off + n++] = carry.get();
+            }
+        }
+        if ((n < len) && (!in.hasRemaining()) && (!flushed)) {
+            CharBuffer out = CharBuffer.wrap(cbuf, off + n, len - n);
+            decoder.decode(in, out, true); // the decoder must see the end before flushing
+            if (!decoder.flush(out).isOverflow())
+                flushed = true;
+            n = out.position() - off;
+        }
+        if ((n == 0) && (flushed))
+            return -1;
+        return n;
+    }
+
+    public void close() {
+        in = null;
+    }
+}
@@ -0,0 +1,294 @@
+package co.usc.lll;
+
+import co.usc.lll.asm.CodeBlock;
+import co.usc.lll.asm.CodeBlockFormat;
+import co.usc.lll.asm.EVMAssemblerHelper;
+import co.usc.lll.asm.LineIndex;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Compiled code kept on disk, so that a source compiled before is not
+// tokenized, parsed nor generated again, also by other processes.
+//
+// An entry is a file named by the SHA-256 of the source, the options that
+// change the code and the working directory (includes are relative to it).
+// It has the hashes of all the files the source included, and it is only used
+// if they did not change; then the code block, labels and source refs are read
+// from it (see CodeBlockFormat). Entries are written to a temporary file and
+// renamed, so a reader never sees half an entry.
+//
+// The modification time of an entry is its last use: when the entries take
+// more than maxBytes, the least recently used ones are deleted.
+public class CompileCache {
+    static final int MAGIC = 0x4c4c4c43; // "LLLC"
+    // Change it when the format or the code generated for a source changes
+    static final int VERSION = 6;
+    static final String SUFFIX = ".bin";
+
+    final Path dir;
+    final long maxBytes;
+    long totalBytes;
+    long hits;
+    long misses;
+    long stores;
+    long evictions;
+
+    public CompileCache(Path dir, long maxBytes) throws IOException {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(dir);
+        for (Path p : entries())
+            totalBytes += size(p);
+    }
+
+    List<Path> entries() throws IOException {
+        List<Path> r = new ArrayList<>();
+        DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*" + SUFFIX);
+        try {
+            for (Path p : ds)
+                r.add(p);
+        } finally {
+            ds.close();
+        }
+        return r;
+    }
+
+    static long size(Path p) {
+        try {
+            return Files.size(p);
+        } catch (IOException e) {
+            return 0; // deleted by another process
+        }
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // all Java platforms have SHA-256
+        }
+    }
+
+    static String hex(byte[] b) {
+        StringBuilder sb = new StringBuilder();
+        for (byte x : b)
+            sb.append(String.format("%02x", x));
+        return sb.toString();
+    }
+
+    public String key(LLLCompilerConfig config, byte[] source) {
+        MessageDigest md = sha256();
+        String options = VERSION + " relax=" + config.relaxBranches + " optimize=" + config.optimize +
+                " inline=" + config.inlineSize + " dir=" + Paths.get("").toAbsolutePath() + "\n";
+        md.update(options.getBytes(StandardCharsets.UTF_8));
+        md.update(source);
+        return hex(md.digest());
+    }
+
+    Path entryPath(String key) {
+        return dir.resolve(key + SUFFIX);
+    }
+
+    // Reads the entry of key into c, if there is one and the files it included
+    // did not change. mainFile is the canonical path of the source, or
+    // IncludeExpander.SOURCE; mainSource its text, null if it is a file.
+    public boolean load(String key, LLLCompilation c, String mainFile, String mainSource) {
+        Path p = entryPath(key);
+        try {
+            byte[] bytes;
+            try {
+                bytes = Files.readAllBytes(p);
+            } catch (NoSuchFileException e) {
+                countMiss();
+                return false;
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            if ((in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+                countMiss();
+                return false;
+            }
+            Map<String, Set<String>> graph = new LinkedHashMap<>();
+            int fromCount = CodeBlockFormat.readVar(in);
+            for (int i = 0; i < fromCount; i++) {
+                String from = in.readUTF();
+                if (from.isEmpty())
+                    from = mainFile;
+                Set<String> included = new LinkedHashSet<>();
+                int count = CodeBlockFormat.readVar(in);
+                for (int j = 0; j < count; j++)
+                    included.add(in.readUTF());
+                graph.put(from, included);
+            }
+            int fileCount = CodeBlockFormat.readVar(in);
+            for (int i = 0; i < fileCount; i++) {
+                String file = in.readUTF();
+                byte[] hash = new byte[32];
+                in.readFully(hash);
+                if (!Arrays.equals(hash, hashFile(file))) {
+                    countMiss();
+                    return false;
+                }
+            }
+            LineIndex lines = null;
+            if (mainSource != null) {
+                lines = new LineIndex();
+                char[] chars = mainSource.toCharArray();
+                lines.scan(chars, 0, chars.length, 0);
+            }
+            EVMAssemblerHelper helper = new EVMAssemblerHelper();
+            CodeBlock block = CodeBlockFormat.read(in, helper, mainSource, lines);
+            c.helper = helper;
+            c.block = block;
+            c.includeGraph = graph;
+            try {
+                Files.setLastModifiedTime(p, FileTime.fromMillis(System.currentTimeMillis()));
+            } catch (IOException e) {
+                // evicted meanwhile, it was read anyway
+            }
+            synchronized (this) {
+                hits++;
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            // a damaged entry, or an included file that cannot be read
+            countMiss();
+            return false;
+        }
+    }
+
+    synchronized void countMiss() {
+        misses++;
+    }
+
+    static byte[] hashFile(String file) {
+        try {
+            return sha256().digest(Files.readAllBytes(Paths.get(file)));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Writes the entry of a successful compilation. Failures to write are
+    // ignored, the cache is only an optimization.
+    public void store(String key, LLLCompilation c, String mainFile, String mainSource) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            Set<String> files = new LinkedHashSet<>();
+            CodeBlockFormat.writeVar(out, c.includeGraph.size());
+            for (Map.Entry<String, Set<String>> e : c.includeGraph.entrySet()) {
+                out.writeUTF(e.getKey().equals(mainFile) ? "" : e.getKey());
+                CodeBlockFormat.writeVar(out, e.getValue().size());
+                for (String f : e.getValue())
+                    out.writeUTF(f);
+                files.addAll(e.getValue());
+            }
+            CodeBlockFormat.writeVar(out, files.size());
+            for (String f : files) {
+                byte[] hash = hashFile(f);
+                if (hash == null)
+                    return;
+                out.writeUTF(f);
+                out.write(hash);
+            }
+            CodeBlockFormat.write(out, c.block, c.helper, mainSource);
+            out.flush();
+
+            Path p = entryPath(key);
+            long old = Files.exists(p) ? size(p) : 0;
+            Path tmp = Files.createTempFile(dir, key, ".tmp");
+            try {
+                Files.write(tmp, bytes.toByteArray());
+                Files.move(tmp, p, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            boolean evict;
+            synchronized (this) {
+                stores++;
+                totalBytes += bytes.size() - old;
+                evict = totalBytes > maxBytes;
+            }
+            if (evict)
+                evict();
+        } catch (IOException e) {
+            // not stored
+        }
+    }
+
+    // Deletes the least recently used entries until they fit in maxBytes
+    synchronized void evict() throws IOException {
+        List<Path> list = entries();
+        final Map<Path, Long> used = new LinkedHashMap<>();
+        long total = 0;
+        for (Path p : list) {
+            try {
+                used.put(p, Files.getLastModifiedTime(p).toMillis());
+                total += Files.size(p);
+            } catch (IOException e) {
+                used.put(p, 0L);
+            }
+        }
+        Collections.sort(list, new Comparator<Path>() {
+            public int compare(Path a, Path b) {
+                return Long.compare(used.get(a), used.get(b));
+            }
+        });
+        for (Path p : list) {
+            if (total <= maxBytes)
+                break;
+            long s = size(p);
+            if (Files.deleteIfExists(p)) {
+                total -= s;
+                evictions++;
+            }
+        }
+        totalBytes = total;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getStores() {
+        return stores;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    // Bytes taken by the entries, as far as this process knows
+    public synchronized long getSize() {
+        return totalBytes;
+    }
+}
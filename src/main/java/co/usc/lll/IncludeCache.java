@@ -0,0 +1,169 @@
+package co.usc.lll;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Parsed include files, shared by compilations so that a header included by
+// many sources is parsed only once. It can be used by many threads.
+//
+// Entries are keyed by the canonical path of the file. An entry is used while
+// the modification time and size of the file are the same; when they change
+// the file is read again, and it is only parsed again if its content hash
+// changed. The least recently used entries are dropped when there are more
+// than maxEntries.
+//
+// File systems keep modification times with a granularity of up to 2 seconds
+// (FAT), so a file changed again within the same tick, keeping its size, has
+// the same time. An entry read less than MTIME_GRANULARITY after the file
+// was modified can not tell it, and the content hash is checked on each use
+// until a read happens later than that. Files are memory-mapped, and hashed
+// and parsed from the mapping.
+public class IncludeCache {
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+    static final long MTIME_GRANULARITY = 2000;
+
+    // Entries are never modified, a new one replaces them
+    static class Entry {
+        final long modified;
+        final long size;
+        final long read; // when the file was read
+        final byte[] hash;
+        final LLLNode node; // never given out, includeFiles() modifies nodes: copies are
+        final LLLTree tree; // only read by LLLTree.graft()
+
+        Entry(long modified, long size, long read, byte[] hash, LLLNode node, LLLTree tree) {
+            this.modified = modified;
+            this.size = size;
+            this.read = read;
+            this.hash = hash;
+            this.node = node;
+            this.tree = tree;
+        }
+
+        // a change of the file would have changed its time or size
+        boolean fresh(long modified, long size) {
+            return (this.modified == modified) && (this.size == size) &&
+                    (read - modified >= MTIME_GRANULARITY);
+        }
+
+        boolean parsed(boolean compact) {
+            return compact ? (tree != null) : (node != null);
+        }
+    }
+
+    final int maxEntries;
+    final LinkedHashMap<Path, Entry> entries;
+    long hits;
+    long misses;
+    long evictions;
+
+    public IncludeCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public IncludeCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        // access order: the first entry is the least recently used
+        entries = new LinkedHashMap<Path, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, IncludeCache.Entry> eldest) {
+                if (size() <= IncludeCache.this.maxEntries)
+                    return false;
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    // A copy of the parsed file, that the caller can modify
+    public LLLNode getNode(String fileName) throws IOException, LLLCompilationError {
+        LLLNode node = get(fileName, false).node;
+        return (node == null) ? null : node.copy();
+    }
+
+    // The parsed file as a tree. It is shared, it must not be modified.
+    public LLLTree getTree(String fileName) throws IOException, LLLCompilationError {
+        return get(fileName, true).tree;
+    }
+
+    Entry get(String fileName, boolean compact) throws IOException, LLLCompilationError {
+        Path path = Paths.get(fileName).toRealPath();
+        // the time is taken before the attributes, a later change is newer
+        long read = System.currentTimeMillis();
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        long modified = attrs.lastModifiedTime().toMillis();
+        long size = attrs.size();
+        Entry e;
+        synchronized (this) {
+            e = entries.get(path);
+            if ((e != null) && (e.fresh(modified, size)) && (e.parsed(compact))) {
+                hits++;
+                return e;
+            }
+        }
+        // files are read and parsed without holding the lock, two threads may
+        // parse the same file at the same time
+        ByteBuffer bytes = ByteBufferReader.mapFile(path);
+        byte[] hash = hash(bytes.duplicate());
+        if ((e != null) && (!Arrays.equals(e.hash, hash)))
+            e = null; // the content changed, the other form is not valid either
+        Entry n;
+        boolean hit = (e != null) && (e.parsed(compact));
+        if (hit)
+            n = new Entry(modified, size, read, hash, e.node, e.tree);
+        else {
+            ByteBufferReader reader = new ByteBufferReader(bytes);
+            if (compact)
+                n = new Entry(modified, size, read, hash, (e == null) ? null : e.node, new LLLTreeParser().parseTree(reader));
+            else
+                n = new Entry(modified, size, read, hash, new LLLParser().parse(reader), (e == null) ? null : e.tree);
+        }
+        synchronized (this) {
+            if (hit)
+                hits++;
+            else
+                misses++;
+            entries.put(path, n);
+        }
+        return n;
+    }
+
+    static byte[] hash(ByteBuffer bytes) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(bytes);
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // all Java platforms have SHA-256
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+}
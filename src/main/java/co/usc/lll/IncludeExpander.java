@@ -0,0 +1,307 @@
+package co.usc.lll;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+// Replaces each INCLUDE node of a parsed source by a SEQ of the files it
+// includes.
+//
+// Includes are expanded in waves. First the nodes not searched yet are searched
+// for includes; then all the files found are read and parsed, in parallel if
+// there is an executor; then they are spliced into the tree in source order,
+// and they are the nodes searched in the next wave. Each node is searched only
+// once, and the result does not depend on the order the files are parsed in.
+//
+// Every included node knows the chain of files it was included from, so that
+// include cycles are reported instead of expanded forever.
+public class IncludeExpander {
+    // the name of the main source in the include graph when it is not a file
+    public static final String SOURCE = "<source>";
+
+    // The files a node was included from, innermost first
+    static class IncludeChain {
+        final String file; // canonical path, or SOURCE
+        final IncludeChain from;
+
+        IncludeChain(String file, IncludeChain from) {
+            this.file = file;
+            this.from = from;
+        }
+
+        boolean contains(String f) {
+            for (IncludeChain c = this; c != null; c = c.from)
+                if (c.file.equals(f))
+                    return true;
+            return false;
+        }
+
+        // "a.lll -> b.lll -> a.lll"
+        String describe(String next) {
+            String r = next;
+            for (IncludeChain c = this; c != null; c = c.from)
+                r = c.file + " -> " + r;
+            return r;
+        }
+    }
+
+    // A file argument of an include node, found in a wave
+    static class Site {
+        final LLLNode node; // the include node, or null in a tree
+        final int id;       // the include node in a tree
+        final int arg;      // index of the argument, or id of the literal in a tree
+        final String fileName;
+        final IncludeChain chain; // for the nodes of the file
+
+        Site(LLLNode node, int id, int arg, String fileName, IncludeChain chain) {
+            this.node = node;
+            this.id = id;
+            this.arg = arg;
+            this.fileName = fileName;
+            this.chain = chain;
+        }
+    }
+
+    final IncludeCache cache;   // may be null
+    final Executor executor;    // null to parse on the calling thread
+    final IncludeChain main;
+
+    // For each source file, the files it includes (canonical paths)
+    final Map<String, Set<String>> graph = new LinkedHashMap<>();
+
+    // mainFile is null if the main source is not a file
+    public IncludeExpander(String mainFile, IncludeCache cache, Executor executor) throws LLLCompilationError {
+        this.cache = cache;
+        this.executor = executor;
+        if (mainFile == null)
+            main = new IncludeChain(SOURCE, null);
+        else {
+            try {
+                main = new IncludeChain(Paths.get(mainFile).toRealPath().toString(), null);
+            } catch (IOException e) {
+                throw new LLLCompilationError("Source file not found: "+mainFile);
+            }
+        }
+    }
+
+    public Map<String, Set<String>> getIncludeGraph() {
+        return graph;
+    }
+
+    static String includeFileName(LLLLiteral a) throws LLLCompilationError {
+        String fileName = a.text;
+        if ((fileName.length()<2) || (!fileName.startsWith("\"")) || (!fileName.endsWith("\"")))
+            throw new LLLCompilationError("Filename must be a string literal: "+fileName);
+        return fileName.substring(1,fileName.length()-1);
+    }
+
+    // Checks that the file is not already being included and adds it to the
+    // include graph. Returns the chain for the nodes of the file.
+    IncludeChain enterInclude(String fileName, IncludeChain from) throws LLLCompilationError {
+        String file;
+        try {
+            file = Paths.get(fileName).toRealPath().toString();
+        } catch (IOException e) {
+            throw new LLLCompilationError("Include file not found: "+fileName);
+        }
+        if (from.contains(file))
+            throw new LLLCompilationError("Include cycle: " + from.describe(file));
+        Set<String> included = graph.get(from.file);
+        if (included == null) {
+            included = new LinkedHashSet<>();
+            graph.put(from.file, included);
+        }
+        included.add(file);
+        return new IncludeChain(file, from);
+    }
+
+    <T> FutureTask<T> start(Callable<T> task) {
+        FutureTask<T> f = new FutureTask<>(task);
+        if (executor == null)
+            f.run();
+        else
+            executor.execute(f);
+        return f;
+    }
+
+    // The executor may be busy with the compilations waiting for these results,
+    // so tasks not started are run by the waiting thread
+    static <T> T result(FutureTask<T> f, String fileName) throws LLLCompilationError {
+        try {
+            f.run(); // if no thread has started it yet, it runs here
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LLLCompilationError("Interrupted while reading include file: "+fileName);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw new LLLCompilationError("Include file not found: "+fileName);
+            if (cause instanceof LLLCompilationError)
+                throw (LLLCompilationError) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    static <T> void cancel(Map<String, FutureTask<T>> tasks) {
+        for (FutureTask<T> f : tasks.values())
+            f.cancel(true); // does nothing if it is done
+    }
+
+    LLLNode parseNode(String fileName) throws IOException, LLLCompilationError {
+        if (cache != null)
+            return cache.getNode(fileName);
+        return LLLCompiler.parseFile(fileName);
+    }
+
+    LLLTree parseTree(String fileName) throws IOException, LLLCompilationError {
+        if (cache != null)
+            return cache.getTree(fileName);
+        return LLLCompiler.parseFileTree(fileName);
+    }
+
+    // Returns true if any file was included
+    public boolean expand(LLLNode root) throws LLLCompilationError {
+        boolean expanded = false;
+        List<LLLNode> roots = new ArrayList<>();
+        List<IncludeChain> chains = new ArrayList<>();
+        if (root != null) {
+            roots.add(root);
+            chains.add(main);
+        }
+        while (!roots.isEmpty()) {
+            List<Site> sites = new ArrayList<>();
+            for (int i = 0; i < roots.size(); i++)
+                findIncludes(roots.get(i), chains.get(i), sites);
+            roots.clear();
+            chains.clear();
+
+            Map<String, FutureTask<LLLNode>> tasks = new HashMap<>();
+            try {
+                for (Site s : sites) {
+                    final String fileName = s.fileName;
+                    if (!tasks.containsKey(fileName))
+                        tasks.put(fileName, start(new Callable<LLLNode>() {
+                            public LLLNode call() throws Exception {
+                                return parseNode(fileName);
+                            }
+                        }));
+                }
+                Set<String> used = new HashSet<>();
+                for (Site s : sites) {
+                    LLLNode iNode = result(tasks.get(s.fileName), s.fileName);
+                    if (iNode == null)
+                        throw new LLLCompilationError("Include file is empty: "+s.fileName);
+                    if (!used.add(s.fileName))
+                        iNode = iNode.copy(); // included twice, nodes are modified
+                    // now the include node must be replaced by SEQ, and each
+                    // file by its root
+                    s.node.setOpcode("SEQ");
+                    s.node.elements.set(0,new LLLLiteral(s.node.opcode));
+                    s.node.elements.set(s.arg+1,iNode);
+                    roots.add(iNode);
+                    chains.add(s.chain);
+                    expanded = true;
+                }
+            } finally {
+                cancel(tasks);
+            }
+        }
+        return expanded;
+    }
+
+    // Adds the include arguments found under root to sites, in source order
+    void findIncludes(LLLNode root, IncludeChain from, List<Site> sites) throws LLLCompilationError {
+        ArrayDeque<LLLNode> nodes = new ArrayDeque<>();
+        nodes.push(root);
+        while (!nodes.isEmpty()) {
+            LLLNode parent = nodes.pop();
+            if (parent.elements == null) // ()
+                continue;
+            boolean include = "INCLUDE".equals(parent.key);
+            for (int i = parent.argCount() - 1; i >= 0; i--) { // the first one is visited first
+                Object a = parent.argAt(i);
+                if (a instanceof LLLNode)
+                    nodes.push((LLLNode) a);
+            }
+            if (!include)
+                continue;
+            for (int i = 0; i < parent.argCount(); i++) {
+                Object a = parent.argAt(i);
+                if (a instanceof LLLLiteral) {
+                    String fileName = includeFileName((LLLLiteral) a);
+                    sites.add(new Site(parent, -1, i, fileName, enterInclude(fileName, from)));
+                }
+            }
+        }
+    }
+
+    // Like expand(LLLNode), on the tree arrays. Included trees are appended to
+    // the tree, so a wave searches the entries added by the previous one. The
+    // chain of each source of the tree is kept by source index.
+    public void expand(LLLTree tree) throws LLLCompilationError {
+        List<IncludeChain> chains = new ArrayList<>();
+        chains.add(main);
+        int from = 0;
+        while (from < tree.size()) {
+            int to = tree.size();
+            List<Site> sites = new ArrayList<>();
+            for (int id = from; id < to; id++) {
+                LLLLiteral op = tree.isNode(id) ? tree.opcodeAt(id) : null;
+                if ((op == null) || (!op.getKey().equals("INCLUDE")))
+                    continue;
+                IncludeChain chain = chains.get(tree.sourceOf(id));
+                for (int a = tree.nextSibling[tree.firstChild[id]]; a >= 0; a = tree.nextSibling[a]) {
+                    if (tree.isNode(a))
+                        continue;
+                    String fileName = includeFileName(tree.literalAt(a));
+                    sites.add(new Site(null, id, a, fileName, enterInclude(fileName, chain)));
+                }
+            }
+            from = to;
+
+            Map<String, FutureTask<LLLTree>> tasks = new HashMap<>();
+            try {
+                for (Site s : sites) {
+                    final String fileName = s.fileName;
+                    if (!tasks.containsKey(fileName))
+                        tasks.put(fileName, start(new Callable<LLLTree>() {
+                            public LLLTree call() throws Exception {
+                                return parseTree(fileName);
+                            }
+                        }));
+                }
+                for (Site s : sites) {
+                    int iNode = tree.graft(result(tasks.get(s.fileName), s.fileName));
+                    if (iNode < 0)
+                        throw new LLLCompilationError("Include file is empty: "+s.fileName);
+                    while (chains.size() < tree.sources.size())
+                        chains.add(s.chain);
+                    // now the node must be replaced by SEQ, and each file
+                    // by its root
+                    tree.setOpcode(s.id, "SEQ");
+                    tree.value[tree.firstChild[s.id]] = tree.value[s.id];
+                    tree.replaceChild(s.id, s.arg, iNode);
+                }
+            } finally {
+                cancel(tasks);
+            }
+        }
+    }
+}
@@ -52,10 +52,12 @@
 package co.usc.lll;
 
 import co.usc.lll.asm.CodeBlock;
+import co.usc.lll.asm.EVMArithmetic;
 import co.usc.lll.asm.EVMAssemblerHelper;
+import co.usc.lll.asm.Instruction;
 import co.usc.lll.asm.OpCode;
+import co.usc.lll.asm.SourceRef;
 
-import java.io.IOException;
 import java.math.BigInteger;
 import java.util.*;
 
@@ -86,16 +88,37 @@ public class LLLCodeGenerator {
     }
 
     EVMAssemblerHelper helper = new EVMAssemblerHelper();
-    Stack<Replacement> replacements = new Stack<>();
+    SymbolTable<Replacement> replacements = new SymbolTable<>();
 
     int stackLevel = 0;
 
+    // evaluate pure expressions and constant conditions at compile time
+    boolean foldConstants = true;
+
+    // functions whose body takes up to inlineSize bytes are expanded at every
+    // call, and functions called once are expanded anyway. Negative to never
+    // expand them.
+    int inlineSize = 16;
+    LLLNode root;
+    Map<String,Integer> callCounts; // counted when first needed
+    // the function whose result each POP of a call that discards it removes,
+    // including the copies of these POPs in inlined bodies
+    Map<Instruction,Function> resultPopFuncs = new HashMap<>();
+
     public EVMAssemblerHelper getHelper() {
         return helper;
     }
 
+    public void setFoldConstants(boolean fold) {
+        foldConstants = fold;
+    }
+
+    public void setInlineSize(int size) {
+        inlineSize = size;
+    }
+
     public void error(String s, LLLNode node) throws LLLCompilationError {
-        throw new LLLCompilationError(s + " at line " + node.line);
+        throw new LLLCompilationError(s + " at line " + node.getLine() + ", column " + node.getColumn());
     }
 
     public static String extractHex(String str) {
@@ -146,22 +169,19 @@ public class LLLCodeGenerator {
 
     int currentReplacementScope = -10;
 
+    // lit must be upper case
     public int findReplacement(String lit) {
         // local variable, look for replacement
-        int found = -1;
-        int start;
+        int limit;
         if (currentReplacementScope!=-10)
-            start = currentReplacementScope-1;
+            limit = currentReplacementScope;
             else
-            start = replacements.size() - 1;
+            limit = replacements.size();
+        return replacements.find(lit, limit);
+    }
 
-        for (int i = start; i >= 0; i--) {
-            if (replacements.get(i).var.equalsIgnoreCase(lit)) {
-                found = i;
-                break;
-            }
-        }
-        return found;
+    void addReplacement(Replacement r) {
+        replacements.push(r.var, r);
     }
 
     public CodeBlock getCodeForReplacement(LLLNode node, int found) throws LLLCompilationError {
@@ -189,9 +209,9 @@ public class LLLCodeGenerator {
         int difDepth = stackLevel - r.depth;
         if ((difDepth >= 16) || (difDepth <= 0))
             error("Local variable access to deep " + difDepth, node);
-        int opCode = OpCode.DUP1.opcode + difDepth - 1;
+        OpCode dup = OpCode.code((byte) (OpCode.DUP1.opcode + difDepth - 1));
         block.startWrite();
-        block.writer().write(opCode);
+        block.write(dup);
         block.endWrite();
         return block;
     }
@@ -201,18 +221,17 @@ public class LLLCodeGenerator {
     }
 
 
-    public CodeBlock getCodeLiteral(LLLNode node, String lit) throws LLLCompilationError {
+    public CodeBlock getCodeLiteral(LLLNode node, LLLLiteral literal) throws LLLCompilationError {
 
-        // check if it is a number
-
-        byte[] value = null;
-        try {
-            value = parseValue(lit).toByteArray();
-        } catch (NumberFormatException e) {
-            lit = lit.toUpperCase();
+        // numbers were already parsed by the parser
+        byte[] value;
+        if (literal.isNumber())
+            value = literal.getPushValue();
+        else {
+            String lit = literal.getKey();
             int found = findReplacement(lit);
 
-            if ((found < 0) && (lit.startsWith("$")))
+            if ((found < 0) && (literal.kind == LLLLiteral.Kind.LOCAL))
                 error("Local var ($) not found: " + lit, node);
             if (found >= 0)
                 return getCodeForReplacement(node, found);
@@ -234,8 +253,10 @@ public class LLLCodeGenerator {
                         vars.put(lit, value);
                         memoryUsed++;
                     }
-                } else
+                } else {
                     error("invalid variable name: " + lit, node);
+                    return null;
+                }
             }
         }
 
@@ -243,6 +264,8 @@ public class LLLCodeGenerator {
         block.startWrite();
         codePUSHValue(node, block,value);
         block.endWrite();
+        if ((foldConstants) && (literal.isNumber()) && (EVMArithmetic.isWord(literal.value)))
+            block.setConstant(literal.value);
         return block;
     }
 
@@ -251,20 +274,14 @@ public class LLLCodeGenerator {
         if (value.length > 32) {
             error("Value too long", node);
         }
-        int pushOpcode = value.length + OpCode.PUSH1.val() - 1;
-
-        try {
-            block.writer().write(pushOpcode);
-            block.writer().write(value);
-        } catch (IOException e) {
-        }
+        block.writePush(value);
     }
 
     public CodeBlock getCodeFor(LLLNode node, Object o) throws LLLCompilationError {
         if (o instanceof LLLNode)
             return generateInnerCodeBlock((LLLNode) o);
-        if (o instanceof String)
-            return getCodeLiteral(node, (String) o);
+        if (o instanceof LLLLiteral)
+            return getCodeLiteral(node, (LLLLiteral) o);
         throw new LLLCompilationError("Invalid token type");
     }
 
@@ -274,15 +291,23 @@ public class LLLCodeGenerator {
     }
 
     public Function getFuncAt(int id) {
-        for (int i = 0; i < functions.size(); i++) {
-            Function f = functions.get(i);
-            if (f.labelID == id)
-                return f;
-        }
-        return null;
+        return functionsByLabel.get(id);
     }
 
     public CodeBlock generateCodeBlock(LLLNode node) throws LLLCompilationError {
+        CodeBlock c = generateLinkedCodeBlock(node);
+
+        if (!helper.performFixUp(c))
+            error("Cannot find referenced labels", node);
+
+        return c;
+    }
+
+    // The code of the program followed by the functions it uses, before labels
+    // are fixed up.
+    public CodeBlock generateLinkedCodeBlock(LLLNode node) throws LLLCompilationError {
+        root = node;
+        callCounts = null;
         CodeBlock c = generateInnerCodeBlock(node);
         if (c == null)
             return new CodeBlock(null);
@@ -317,17 +342,61 @@ public class LLLCodeGenerator {
             unew = next;
         }
 
+        Set<Instruction> resultPops = new HashSet<>();
         for (int i = 0; i < functions.size(); i++) {
             Function f = functions.get(i);
             //use-counting must be recursive, because a function can use another
-            if (used.contains(f.labelID))
+            if (used.contains(f.labelID)) {
+                writeReturn(f);
                 c.append(helper, f.code);
+                if (!f.resultUsed)
+                    resultPops.addAll(f.resultPops);
+            }
         }
+        if (!resultPops.isEmpty())
+            removeInstructions(c, resultPops);
+        return c;
+    }
 
-        if (!helper.performFixUp(c))
-            error("Cannot find referenced labels", node);
+    // The return of a function, see the calling convention above Function
+    void writeReturn(Function f) {
+        int args = f.args.size();
+        f.code.startWrite();
+        if (f.resultUsed) {
+            if (args > 0)
+                f.code.write(OpCode.code((byte) (OpCode.SWAP1.opcode + args - 1)));
+            for (int i = 0; i < args; i++)
+                f.code.write(OpCode.POP);
+            f.code.write(OpCode.SWAP1);
+        } else
+            for (int i = 0; i <= args; i++)
+                f.code.write(OpCode.POP);
+        f.code.write(OpCode.JUMP);
+        f.code.endWrite();
+    }
 
-        return c;
+    // Removes the instructions from the code of c. Their source refs move to
+    // the next instruction.
+    void removeInstructions(CodeBlock c, Set<Instruction> removed) {
+        List<Instruction> list = c.getInstructions();
+        int kept = 0;
+        List<SourceRef> refs = null;
+        for (Instruction ins : list) {
+            if (removed.contains(ins)) {
+                if (ins.refs != null) {
+                    if (refs == null)
+                        refs = new ArrayList<>();
+                    refs.addAll(ins.refs);
+                }
+                continue;
+            }
+            if ((refs != null) && (!ins.isLabel())) {
+                ins.addRefs(refs);
+                refs = null;
+            }
+            list.set(kept++, ins);
+        }
+        list.subList(kept, list.size()).clear();
     }
 
     public CodeBlock codeAND_OR(LLLNode node, String opcode) throws LLLCompilationError {
@@ -341,9 +410,9 @@ public class LLLCodeGenerator {
             block.append(helper, getCodeFor(node, node.argAt(i)));
             block.startWrite();
             if (isAND)
-                block.writer().write(OpCode.ISZERO.opcode);
+                block.write(OpCode.ISZERO);
             block.writePushTag(falseLabel);
-            block.writer().write(OpCode.JUMPI.opcode);
+            block.write(OpCode.JUMPI);
             block.endWrite();
         }
         block.startWrite();
@@ -351,14 +420,14 @@ public class LLLCodeGenerator {
 
         block.writePushByte(trueVal);
         block.writePushTag(exitLabel);
-        block.writer().write(OpCode.JUMP.opcode);
+        block.write(OpCode.JUMP);
         // FALSE
         helper.setLabelPosition(falseLabel, block, block.writeOffset());
-        block.writer().write(OpCode.JUMPDEST.opcode);
+        block.write(OpCode.JUMPDEST);
         block.writePushByte(1 - trueVal);
         // EXIT
         helper.setLabelPosition(exitLabel, block, block.writeOffset());
-        block.writer().write(OpCode.JUMPDEST.opcode);
+        block.write(OpCode.JUMPDEST);
         block.endWrite();
         return block;
     }
@@ -371,12 +440,16 @@ public class LLLCodeGenerator {
         if (node.argCount() > 3) // cond if else
             error("too many arguments for IF", node);
 
+        BigInteger cond = evalConstant(node, node.argAt(0));
+        if (cond != null)
+            return codeConstantIF(node, cond.signum() != 0);
+
         // Condition
         block.append(helper, getCodeFor(node, node.argAt(0)));
         block.startWrite();
-        block.writer().write(OpCode.ISZERO.opcode);
+        block.write(OpCode.ISZERO);
         block.writePushTag(falseLabel);
-        block.writer().write(OpCode.JUMPI.opcode);
+        block.write(OpCode.JUMPI);
         block.endWrite();
 
         CodeBlock trueBlock = getCodeFor(node, node.argAt(1));
@@ -387,14 +460,14 @@ public class LLLCodeGenerator {
         if (!trueBlock.reverts) {
             block.startWrite();
             block.writePushTag(exitLabel);
-            block.writer().write(OpCode.JUMP.opcode);
+            block.write(OpCode.JUMP);
             block.endWrite();
         }
 
         // FALSE
         helper.setLabelPosition(falseLabel, block, block.writeOffset());
         block.startWrite();
-        block.writer().write(OpCode.JUMPDEST.opcode);
+        block.write(OpCode.JUMPDEST);
         block.endWrite();
 
         if (node.argCount() >= 3)
@@ -411,11 +484,34 @@ public class LLLCodeGenerator {
             // EXIT
             helper.setLabelPosition(exitLabel, block, block.writeOffset());
             block.startWrite();
-            block.writer().write(OpCode.JUMPDEST.opcode);
+            block.write(OpCode.JUMPDEST);
             block.endWrite();
         }
         return block;
     }
+    // IF with a constant condition: only the branch taken is kept. The other one is
+    // still generated and then dropped, so that macros, functions and memory
+    // variables defined there are the same as without folding.
+    public CodeBlock codeConstantIF(LLLNode node, boolean taken) throws LLLCompilationError {
+        CodeBlock block = new CodeBlock(node.ref);
+        CodeBlock trueBlock = getCodeFor(node, node.argAt(1));
+        CodeBlock falseBlock = null;
+        if (node.argCount() >= 3)
+            falseBlock = getCodeFor(node, node.argAt(2));
+
+        if (taken)
+            block.append(helper, trueBlock);
+        else if (falseBlock != null)
+            block.append(helper, falseBlock);
+        else {
+            // push false, because IF must always push something
+            block.startWrite();
+            block.writePushByte(0);
+            block.endWrite();
+        }
+        return block;
+    }
+
     //(for INIT PRED POST BODY) evaluates INIT once (ignoring any result), then evaluates BODY and POST (discarding the result of both) as long as PRED is true.
 
     public CodeBlock codeFOR(LLLNode node, String opcode) throws LLLCompilationError {
@@ -429,21 +525,21 @@ public class LLLCodeGenerator {
         // initialization
         block.append(helper, getCodeFor(node, node.argAt(0)));
         block.startWrite();
-        block.writer().write(OpCode.POP.opcode); // dispose initialization result
+        block.write(OpCode.POP); // dispose initialization result
         block.endWrite();
         helper.setLabelPosition(condLabel, block, block.writeOffset());
 
         // condition
         block.startWrite();
-        block.writer().write(OpCode.JUMPDEST.opcode);
+        block.write(OpCode.JUMPDEST);
         block.endWrite();
 
         block.append(helper, getCodeFor(node, node.argAt(1)));
         block.startWrite();
         // if condition is false, jump to exit
-        block.writer().write(OpCode.ISZERO.opcode);
+        block.write(OpCode.ISZERO);
         block.writePushTag(exitLabel);
-        block.writer().write(OpCode.JUMPI.opcode);
+        block.write(OpCode.JUMPI);
         block.endWrite();
 
         // execute post
@@ -452,13 +548,13 @@ public class LLLCodeGenerator {
         // jump to conditon
         block.startWrite();
         block.writePushTag(condLabel);
-        block.writer().write(OpCode.JUMP.opcode);
+        block.write(OpCode.JUMP);
         block.endWrite();
 
         // EXIT
         helper.setLabelPosition(exitLabel, block, block.writeOffset());
         block.startWrite();
-        block.writer().write(OpCode.JUMPDEST.opcode);
+        block.write(OpCode.JUMPDEST);
         block.endWrite();
         return block;
     }
@@ -473,21 +569,30 @@ public class LLLCodeGenerator {
         if (node.argCount() != 2) // cond if else
             error("invalid number of arguments for WHILE", node);
 
+        BigInteger cond = evalConstant(node, node.argAt(0));
+        if ((cond != null) && (cond.signum() == 0)) {
+            // never executed: generate the body for its definitions only
+            getCodeFor(node, node.argAt(1));
+            return block;
+        }
+
         helper.setLabelPosition(condLabel, block, block.writeOffset());
 
         // condition
         block.startWrite();
-        block.writer().write(OpCode.JUMPDEST.opcode);
+        block.write(OpCode.JUMPDEST);
         block.endWrite();
 
-        block.append(helper, getCodeFor(node, node.argAt(0)));
-        block.startWrite();
+        if (cond == null) {
+            block.append(helper, getCodeFor(node, node.argAt(0)));
+            block.startWrite();
 
-        // if condition is false, jump to exit
-        block.writer().write(OpCode.ISZERO.opcode);
-        block.writePushTag(exitLabel);
-        block.writer().write(OpCode.JUMPI.opcode);
-        block.endWrite();
+            // if condition is false, jump to exit
+            block.write(OpCode.ISZERO);
+            block.writePushTag(exitLabel);
+            block.write(OpCode.JUMPI);
+            block.endWrite();
+        }
 
         // execute code
         CodeBlock body = getCodeFor(node, node.argAt(1));
@@ -500,16 +605,19 @@ public class LLLCodeGenerator {
 
         if (body!=null)
             // POP Last expression return value
-            block.writer().write(OpCode.POP.opcode);
+            block.write(OpCode.POP);
 
         block.writePushTag(condLabel);
-        block.writer().write(OpCode.JUMP.opcode);
+        block.write(OpCode.JUMP);
         block.endWrite();
 
+        if (cond != null) // constant true, there is no exit
+            return block;
+
         // EXIT
         helper.setLabelPosition(exitLabel, block, block.writeOffset());
         block.startWrite();
-        block.writer().write(OpCode.JUMPDEST.opcode);
+        block.write(OpCode.JUMPDEST);
         block.endWrite();
         return block;
     }
@@ -527,7 +635,7 @@ public class LLLCodeGenerator {
 
         // condition
         block.startWrite();
-        block.writer().write(OpCode.JUMPDEST.opcode);
+        block.write(OpCode.JUMPDEST);
         block.endWrite();
 
         // execute code
@@ -537,7 +645,7 @@ public class LLLCodeGenerator {
         if (body!=null) {
             // Pop return argument of code executed
             block.startWrite();
-            block.writer().write(OpCode.POP.opcode);
+            block.write(OpCode.POP);
             block.endWrite();
         }
         // compile conditon
@@ -545,7 +653,7 @@ public class LLLCodeGenerator {
 
         block.startWrite();
         block.writePushTag(startLabel);
-        block.writer().write(OpCode.JUMPI.opcode);
+        block.write(OpCode.JUMPI);
         block.endWrite();
 
         return block;
@@ -555,12 +663,19 @@ public class LLLCodeGenerator {
         CodeBlock block = new CodeBlock(null); // this mat be too long... do not copy the whole seq
 
         for (int i = 0; i < node.argCount(); i++) {
-            CodeBlock c = getCodeFor(node, node.argAt(i));
+            boolean last = (i == node.argCount() - 1);
+            // a function call discards its own value
+            int f = last ? -1 : getCalledFunc(node.argAt(i));
+            CodeBlock c;
+            if (f >= 0)
+                c = codeExecFunc((LLLNode) node.argAt(i), f, true);
+            else
+                c = getCodeFor(node, node.argAt(i));
             block.append(helper, c);
             // thow array all but last stack value
-            if ((c != null) && (i != node.argCount() - 1)) {
+            if ((c != null) && (!last) && (f < 0)) {
                 block.startWrite();
-                block.writer().write(OpCode.POP.opcode); // remove local var
+                block.write(OpCode.POP); // remove local var
                 block.endWrite();
             }
 
@@ -568,21 +683,27 @@ public class LLLCodeGenerator {
         return block;
     }
 
-    public void writeAsmIns(LLLNode node, CodeBlock block, String tok)throws LLLCompilationError  {
-        try {
-            byte[] value = parseValue(tok).toByteArray();
+    // The function o calls, or -1
+    int getCalledFunc(Object o) {
+        if (!(o instanceof LLLNode))
+            return -1;
+        LLLNode node = (LLLNode) o;
+        if (node.kind != LLLNode.Kind.CALL)
+            return -1;
+        return getFuncIndex(node.key);
+    }
+
+    public void writeAsmIns(LLLNode node, CodeBlock block, LLLLiteral tok)throws LLLCompilationError  {
+        if (tok.isNumber()) {
+            byte[] value = tok.getPushValue();
             if (value.length > 32) {
                 error("constant to long", node);
             }
-            int pushOpcode = value.length + OpCode.PUSH1.val() - 1;
-            block.writer().write(pushOpcode);
-            block.writer().write(value);
-        } catch (NumberFormatException e)
-        {
-            byte opcode = OpCode.byteVal(tok);
-            block.writer().write(opcode);
-        } catch (IOException e) {
-            error("IOException",node);
+            block.writePush(value);
+        } else {
+            if (!OpCode.contains(tok.text))
+                error("Unknown asm instruction: " + tok.text, node);
+            block.write(OpCode.code(OpCode.byteVal(tok.text)));
         }
     }
 
@@ -592,7 +713,7 @@ public class LLLCodeGenerator {
         block.startWrite();
         //
         block.writePushInt(Integer.MAX_VALUE); //will generate an exception
-        block.writer().write(OpCode.JUMP.opcode);
+        block.write(OpCode.JUMP);
         block.endWrite();
         block.reverts = true;
         return block;
@@ -614,7 +735,7 @@ public class LLLCodeGenerator {
 
         block.startWrite();
         block.writePushInt(2300); // gas for SEND
-        block.writer().write(OpCode.CALL.opcode);
+        block.write(OpCode.CALL);
         block.endWrite();
         // returns 1 on success / 0 on failure
         return block;
@@ -643,11 +764,12 @@ public class LLLCodeGenerator {
         CodeBlock block = new CodeBlock(node.ref);
         CodeBlock addr = getCodeFor(node,node.argAt(0));
         block.append(helper,addr);
-        if (!(node.argAt(1) instanceof String))
+        if (!(node.argAt(1) instanceof LLLLiteral))
             error("Literal string expected",node);
-        String lit = (String) node.argAt(1);
-        if (!lit.startsWith("\""))
+        LLLLiteral literal = (LLLLiteral) node.argAt(1);
+        if (literal.kind != LLLLiteral.Kind.STRING)
             error("String expected",node);
+        String lit = literal.text;
         lit = lit.substring(1,lit.length()-1);
         if (lit.length()>32)
             error("Literal string too long",node);
@@ -662,7 +784,7 @@ public class LLLCodeGenerator {
         byte[] value = bi.toByteArray();
         block.startWrite();
         codePUSHValue(node, block,value);
-        block.writer().write(OpCode.MSTORE.opcode);
+        block.write(OpCode.MSTORE);
         block.writePushByte(lit.length());
         block.endWrite();
         return block;
@@ -671,12 +793,11 @@ public class LLLCodeGenerator {
     public CodeBlock codeVARDEPTH(LLLNode node) throws LLLCompilationError {
         if (node.argCount()!=1)
             error("REF requires only one argument",node);
-        if (!(node.argAt(0) instanceof String))
+        if (!(node.argAt(0) instanceof LLLLiteral))
             error("REF requires an variable as argument",node);
 
-        String lit = (String) node.argAt(0);
+        String lit = ((LLLLiteral) node.argAt(0)).getKey();
 
-        lit = lit.toUpperCase();
         int found = findReplacement(lit);
         if (found < 0)
             error("Var not found: " + lit, node);
@@ -701,10 +822,10 @@ public class LLLCodeGenerator {
         if (currentReplacementScope!=-10)
             error("Cannot define a macro in a macro argument",node);
 
-        if (!(node.argAt(0) instanceof String))
+        if (!(node.argAt(0) instanceof LLLLiteral))
             error("First macro argument must be a name",node);
 
-        String name = (String) node.argAt(0);
+        String name = ((LLLLiteral) node.argAt(0)).text;
         if (!name.startsWith("'"))
             error("Macro name must start with the ' character ",node);
 
@@ -719,7 +840,7 @@ public class LLLCodeGenerator {
             if (!(argListObj instanceof LLLNode))
                 error("Expecting argument list", node);
 
-            List args = ((LLLNode) argListObj).elements;
+            List<?> args = parameters((LLLNode) argListObj);
 
             // Now check that the argument list consist solely on $ identifiers
             // also create list of identifiers
@@ -735,23 +856,30 @@ public class LLLCodeGenerator {
 
         block.startWrite();
         for (int i = 0; i < node.argCount(); i++) {
-            if (!(node.argAt(i) instanceof String))
+            if (!(node.argAt(i) instanceof LLLLiteral))
                 error("Asm instruction expected",node);
 
-            String ins = (String) node.argAt(i);
+            LLLLiteral ins = (LLLLiteral) node.argAt(i);
             writeAsmIns(node,block,ins);
         }
         block.endWrite();
         return block;
     }
 
+    // The elements of a list of parameters, () has none
+    static List<?> parameters(LLLNode node) {
+        if (node.elements == null)
+            return Collections.emptyList();
+        return node.elements;
+    }
+
     public void checkArgumentIdentifiers(LLLNode node, List args,boolean startWithDS) throws LLLCompilationError {
         List<String> list = new ArrayList<>();
 
         for (int i = 0; i < args.size(); i++) {
-            if (!(args.get(i) instanceof String))
+            if (!(args.get(i) instanceof LLLLiteral))
                 error("Expecing an argument identifier", node);
-            String id = (String) args.get(i);
+            String id = ((LLLLiteral) args.get(i)).text;
             if ((startWithDS) && (!id.startsWith("$")))
                 error("Argument identifiers must start with symbol $", node);
             if ((!startWithDS) && (!isAlphaNumVar(id)))
@@ -764,12 +892,39 @@ public class LLLCodeGenerator {
         }
     }
 
+    // Internal calls (FUNC). A call to a function with n arguments is
+    //
+    //   PUSH ret <argument 1> ... <argument n> PUSH f JUMP ret: JUMPDEST
+    //
+    // so on entry the stack holds, from the top: argument n ... argument 1,
+    // and the return address. The body leaves its value on top, and the
+    // function returns with
+    //
+    //   SWAPn POP (n times) SWAP1 JUMP     (SWAPn only if n>0)
+    //
+    // which leaves the value in place of the return address. A function whose
+    // value no call uses returns nothing:
+    //
+    //   POP (n+1 times) JUMP
+    //
+    // and the calls that discard the value do not POP it. Gas of a call with
+    // n>0 arguments (PUSH and JUMPDEST included) is 30+2n when the value is
+    // used, 26+2n when it is not. The previous convention, a dummy value below
+    // the return address and JUMPI to enter and leave, took 36+2n, plus 2 to
+    // discard the value.
     private class Function {
         CodeBlock code;
         List args;
         String name;
         int labelID;
         int useCount;
+        // instructions of the body, copied where the function is inlined
+        List<Instruction> body;
+        int bodySize;
+        // some call uses the result, otherwise the POPs of the callers that
+        // discard it are removed
+        boolean resultUsed;
+        List<Instruction> resultPops = new ArrayList<>();
 
         public Function(String aname,List argList,CodeBlock funCode,int alabelID) {
             name = aname;
@@ -781,6 +936,9 @@ public class LLLCodeGenerator {
     }
 
     List<Function> functions = new ArrayList<>();
+    // index in functions of the last function defined with each name
+    Map<String,Integer> functionsByName = new HashMap<>();
+    Map<Integer,Function> functionsByLabel = new HashMap<>();
 
 
     public CodeBlock codeFUNC(LLLNode node,String opcode) throws LLLCompilationError {
@@ -790,26 +948,27 @@ public class LLLCodeGenerator {
 
         // First argument is function name
         Object objName=node.argAt(0);
-        if (!(objName instanceof String))
+        if (!(objName instanceof LLLLiteral))
             error("Expecting function name",node);
 
-        String name = (String) objName;
-        name = name.toUpperCase();
+        String name = ((LLLLiteral) objName).getKey();
 
         // first arguments is list of parameters (can be empty)
         Object argListObj =node.argAt(1);
         if (!(argListObj instanceof LLLNode))
             error("Expecting argument list",node);
 
-        List args = ((LLLNode) argListObj).elements;
+        List<?> args = parameters((LLLNode) argListObj);
 
         // Now check that the argument list consist solely on $ identifiers
         // also create list of identifiers
         checkArgumentIdentifiers((LLLNode) argListObj,args,false);
+        if (args.size()>16)
+            error("Too many arguments",node);
 
         // pushed from start to end, like C (unlike Pascal)
         for (int i = 0; i < args.size(); i++) {
-            replacements.add(new Replacement((String) args.get(i), stackLevel));
+            addReplacement(new Replacement(((LLLLiteral) args.get(i)).getKey(), stackLevel));
             stackLevel++;
         }
         CodeBlock block = new CodeBlock(node.ref);
@@ -817,76 +976,182 @@ public class LLLCodeGenerator {
 
         helper.setLabelPosition(enterLabel,block,block.writeOffset());
         block.startWrite();
-        block.writer().write(OpCode.JUMPDEST.opcode);
+        block.write(OpCode.JUMPDEST);
         block.endWrite();
 
         CodeBlock funCode = getCodeFor(node,node.argAt(2));
+        List<Instruction> body = null;
+        int bodySize = 0;
+        if ((inlineSize>=0) && (funCode!=null)) {
+            body = funCode.getInstructions();
+            bodySize = funCode.writeOffset();
+        }
         block.append(helper,funCode);
-        block.startWrite();
-
-        // Caller MUST make room for return value always
-        // Now in stack is return value. Must exchange with caller provided dummy value
-        int swapOp = OpCode.SWAP1.opcode +args.size();
-        if (swapOp>OpCode.SWAP16.opcode)
-            error("Too many arguments",node);
-
-        block.writer().write(swapOp);
-
-        // now remove the dummy from top
-        block.writer().write(OpCode.POP.opcode);
-
         for (int i = 0; i < args.size(); i++) {
-            block.writer().write(OpCode.POP.opcode);
             replacements.pop();
             stackLevel--;
         }
-        block.writer().write(OpCode.JUMPI.opcode);
-        block.endWrite();
+        // the return is written when the program is linked, once it is known
+        // whether any call uses the result
 
         // store function
-        functions.add(new Function(name,args,block,enterLabel));
+        Function f = new Function(name,args,block,enterLabel);
+        f.body = body;
+        f.bodySize = bodySize;
+        functionsByName.put(name,functions.size());
+        functionsByLabel.put(enterLabel,f);
+        functions.add(f);
         // return a non-code
         return null;
     }
 
     public CodeBlock codeExecFunc(LLLNode node,int fIndex) throws LLLCompilationError {
-        CodeBlock block = new CodeBlock(node.ref);
+        return codeExecFunc(node,fIndex,false);
+    }
+
+    // If discard, the value of the call is removed from the stack
+    public CodeBlock codeExecFunc(LLLNode node,int fIndex,boolean discard) throws LLLCompilationError {
         Function func = functions.get(fIndex);
         if (node.argCount()!=func.args.size())
             error("Function requires different number of arguments ("+func.args.size()+")",node);
-
-
-
-        block.startWrite();
-        // First push a dummy return value (currenlty only a single value can be returned)
-        block.writePushByte(0);
-
-        // Then push return address
+        if (isInlined(func)) {
+            CodeBlock block = codeInlineFunc(node,func);
+            if (discard) {
+                block.startWrite();
+                block.write(OpCode.POP);
+                block.endWrite();
+            }
+            return block;
+        }
+        CodeBlock block = new CodeBlock(node.ref);
         int returnAddressLabel = helper.getNewLabel(null);
+        block.startWrite();
         block.writePushTag(returnAddressLabel);
         block.endWrite();
+        stackLevel++;
 
-        // push arguments
+        // arguments are pushed from first to last
         for (int i = 0; i < node.argCount(); i++) {
             block.append(helper,getCodeFor(node,node.argAt(i)));
-
+            stackLevel++;
         }
-        // internal function call (does not use the CALL opcode),
-        // this is done by pushing the return address and then the function to be called
-
+        stackLevel -= node.argCount()+1;
+        // internal function call (does not use the CALL opcode)
         func.useCount++;
 
         block.startWrite();
         block.addCalledFunc(func.labelID);
         block.writePushTag(func.labelID);
-        block.writer().write(OpCode.JUMPI.opcode);
-        // Now in stack is return value
+        block.write(OpCode.JUMP);
         helper.setLabelPosition(returnAddressLabel,block,block.writeOffset());
-        block.writer().write(OpCode.JUMPDEST.opcode);
+        block.write(OpCode.JUMPDEST);
+        if (discard) {
+            Instruction pop = new Instruction(OpCode.POP);
+            block.write(pop);
+            func.resultPops.add(pop);
+            resultPopFuncs.put(pop,func);
+        } else
+            func.resultUsed = true;
         block.endWrite();
         return block;
     }
 
+    boolean isInlined(Function func) {
+        if ((inlineSize<0) || (func.body==null))
+            return false;
+        if (func.bodySize<=inlineSize)
+            return true;
+        if (callCounts==null) {
+            callCounts = new HashMap<>();
+            countCalls(root,1,new HashSet<String>());
+        }
+        Integer calls = callCounts.get(func.name);
+        return (calls!=null) && (calls==1);
+    }
+
+    // Counts the calls to each function in the program, in callCounts. The
+    // calls in a macro definition, or in the arguments of a macro, may be
+    // generated many times: each one counts as two. Functions must be defined
+    // before they are called, so a name is known to be a function (and not a
+    // macro) when its calls are reached.
+    void countCalls(Object o,int weight,Set<String> funcs) {
+        if (!(o instanceof LLLNode))
+            return;
+        LLLNode node = (LLLNode) o;
+        if (node.elements==null)
+            return;
+        int first = 0;
+        if (node.kind==LLLNode.Kind.FUNC) {
+            if ((node.argCount()>0) && (node.argAt(0) instanceof LLLLiteral))
+                funcs.add(((LLLLiteral) node.argAt(0)).getKey());
+            first = 3; // the body
+        } else
+        if (node.kind==LLLNode.Kind.DEF) {
+            weight = 2;
+            first = 2;
+        } else
+        if (node.kind==LLLNode.Kind.CALL) {
+            Integer calls = callCounts.get(node.key);
+            callCounts.put(node.key,(calls==null) ? weight : calls+weight);
+            if (!funcs.contains(node.key))
+                weight = 2;
+            first = 1;
+        }
+        for (int i=first;i<node.elements.size();i++)
+            countCalls(node.elements.get(i),weight,funcs);
+    }
+
+    // The call is replaced by a copy of the body of the function, with new
+    // labels. The arguments are pushed as for a call, and then the result
+    // takes their place, as in WITH.
+    public CodeBlock codeInlineFunc(LLLNode node,Function func) throws LLLCompilationError {
+        CodeBlock block = new CodeBlock(node.ref);
+        for (int i = 0; i < node.argCount(); i++) {
+            block.append(helper,getCodeFor(node,node.argAt(i)));
+            stackLevel++;
+        }
+        stackLevel -= node.argCount();
+        func.useCount++;
+        for (Integer id : func.code.getCalledFuncs())
+            block.addCalledFunc(id);
+
+        Map<Integer,Integer> labels = new HashMap<>();
+        for (Instruction ins : func.body)
+            if (ins.isLabel())
+                labels.put(ins.label,helper.getNewLabel(null));
+        block.startWrite();
+        for (Instruction ins : func.body) {
+            if (ins.isLabel()) {
+                helper.setLabelPosition(labels.get(ins.label),block,block.writeOffset());
+                continue;
+            }
+            Instruction c = new Instruction(ins.op,ins.data);
+            c.label = ins.label;
+            if ((ins.label>=0) && (labels.containsKey(ins.label)))
+                c.label = labels.get(ins.label);
+            if (ins.refs!=null) {
+                c.refs = new ArrayList<>();
+                for (SourceRef r : ins.refs)
+                    c.refs.add(r.cloneSourceRef());
+            }
+            // a copy of a POP that discards the result of a call is removed
+            // with the original, if the called function returns nothing
+            Function callee = resultPopFuncs.get(ins);
+            if (callee!=null) {
+                callee.resultPops.add(c);
+                resultPopFuncs.put(c,callee);
+            }
+            block.write(c);
+        }
+        int args = func.args.size();
+        if (args>0) {
+            block.write(OpCode.code((byte) (OpCode.SWAP1.opcode+args-1)));
+            for (int i = 0; i < args; i++)
+                block.write(OpCode.POP);
+        }
+        block.endWrite();
+        return block;
+    }
 
     public CodeBlock codeWHEN_UNLESS(LLLNode node,String opcode) throws LLLCompilationError {
         CodeBlock block = new CodeBlock(node.ref);
@@ -895,13 +1160,27 @@ public class LLLCodeGenerator {
         if (node.argCount()>2) // cond if else
             error("too many arguments for "+opcode,node);
 
+        BigInteger cond = evalConstant(node, node.argAt(0));
+        if (cond != null) {
+            boolean taken = (cond.signum() != 0) == opcode.equals("WHEN");
+            CodeBlock eblock = getCodeFor(node, node.argAt(1));
+            if (taken)
+                block.append(helper, eblock);
+            else {
+                block.startWrite();
+                block.writePushByte(0);
+                block.endWrite();
+            }
+            return block;
+        }
+
         // Condition
         block.append(helper,getCodeFor(node,node.argAt(0)));
         block.startWrite();
         if (opcode.equals("WHEN"))
-            block.writer().write(OpCode.ISZERO.opcode);
+            block.write(OpCode.ISZERO);
         block.writePushTag(falseLabel);
-        block.writer().write(OpCode.JUMPI.opcode);
+        block.write(OpCode.JUMPI);
         block.endWrite();
 
         // True for WHEN / False for UNLESS
@@ -910,13 +1189,13 @@ public class LLLCodeGenerator {
         if (!eblock.reverts) {
             block.startWrite();
             block.writePushTag(exitLabel);
-            block.writer().write(OpCode.JUMP.opcode);
+            block.write(OpCode.JUMP);
             block.endWrite();
         }
         // FALSE
         helper.setLabelPosition(falseLabel,block,block.writeOffset());
         block.startWrite();
-        block.writer().write(OpCode.JUMPDEST.opcode);
+        block.write(OpCode.JUMPDEST);
         block.endWrite();
         // push false, because IF must always push something
         block.startWrite();
@@ -926,7 +1205,7 @@ public class LLLCodeGenerator {
             // EXIT
             helper.setLabelPosition(exitLabel, block, block.writeOffset());
             block.startWrite();
-            block.writer().write(OpCode.JUMPDEST.opcode);
+            block.write(OpCode.JUMPDEST);
             block.endWrite();
         }
         return block;
@@ -942,13 +1221,13 @@ public class LLLCodeGenerator {
         // We allow with to specify a single var or a list of vars
         if (node.argAt(0) instanceof LLLNode) {
             LLLNode argNode = (LLLNode) node.argAt(0);
-            List args = argNode.elements;
-            if (argNode.elements.size()<1)
+            List<?> args = parameters(argNode);
+            if (args.size()<1)
                 error("At least one arg required",node);
             for (Object a :args) {
                 if (a instanceof LLLNode)
                     error("local variable expected in WITH: ", argNode);
-                String var = (String) a;
+                String var = ((LLLLiteral) a).text;
                 if (!var.startsWith("$"))
                     error("Local variable expected in with at " + var, argNode);
             }
@@ -967,7 +1246,7 @@ public class LLLCodeGenerator {
 
             for (Object a :args) {
                 // build replacement code
-                replacements.add(new Replacement((String) a, stackLevel));
+                addReplacement(new Replacement(((LLLLiteral) a).getKey(), stackLevel));
                 stackLevel++;
             }
             // True: return expression
@@ -979,15 +1258,15 @@ public class LLLCodeGenerator {
             int swapOp = OpCode.SWAP1.opcode +args.size()-1;
             if (swapOp>OpCode.SWAP16.opcode)
                 error("Too many arguments ",node);
-            block.writer().write(swapOp);
+            block.write(OpCode.code((byte) swapOp));
             for (Object a :args) {
-                block.writer().write(OpCode.POP.opcode); // remove local var
+                block.write(OpCode.POP); // remove local var
                 replacements.pop();
                 stackLevel--;
             }
             block.endWrite();
         } else {
-            String var = (String) node.argAt(0);
+            String var = ((LLLLiteral) node.argAt(0)).text;
             if (!var.startsWith("$"))
                 error("Local variable expected in with ", node);
 
@@ -995,7 +1274,7 @@ public class LLLCodeGenerator {
             block.append(helper, getCodeFor(node, node.argAt(1)));
 
             // build replacement code
-            replacements.add(new Replacement(var, stackLevel));
+            addReplacement(new Replacement(((LLLLiteral) node.argAt(0)).getKey(), stackLevel));
             stackLevel++;
 
             // True: return expression
@@ -1003,8 +1282,8 @@ public class LLLCodeGenerator {
             block.startWrite();
             // pop the var from the stack, but leave the previous value
             // The easiest way is swapping them before popping
-            block.writer().write(OpCode.SWAP1.opcode);
-            block.writer().write(OpCode.POP.opcode); // remove local var
+            block.write(OpCode.SWAP1);
+            block.write(OpCode.POP); // remove local var
             block.endWrite();
             replacements.pop();
             stackLevel--;
@@ -1012,36 +1291,15 @@ public class LLLCodeGenerator {
         return block;
     }
 
-    private class AliasReplacement {
-        String opcode;
-        OpCode addCode;
-
-        public AliasReplacement(String opcode,OpCode addCode) {
-            this.opcode =opcode;
-            this.addCode = addCode;
-        }
-    }
-
-    AliasReplacement getAlias(String opcode) {
-        if (opcode.equals(">=")) {
-            return new AliasReplacement("LT", OpCode.ISZERO);
-        } else if (opcode.equals("<=")) {
-            return new AliasReplacement("GT", OpCode.ISZERO);
-        } else if (opcode.equals("!=")) {
-            return new AliasReplacement("EQ", OpCode.ISZERO);
-        }
-        return null;
-    }
-
     public boolean isOpcode(String opcode) {
         return (OpCode.contains(opcode));
     }
 
-    public CodeBlock codeOpcode(LLLNode node,String opcode,OpCode addCode) throws LLLCompilationError {
+    public CodeBlock codeOpcode(LLLNode node,OpCode opcodeDesc,OpCode addCode) throws LLLCompilationError {
         CodeBlock block = new CodeBlock(node.ref);
 
-        byte opcodeByte = OpCode.byteVal(opcode);
-        OpCode opcodeDesc = OpCode.code(opcodeByte);
+        String opcode = opcodeDesc.name();
+        byte opcodeByte = opcodeDesc.val();
 
         // LLL allows accumulating several operations
         // So (ADD a b c) is permitted, but only for binary operations
@@ -1054,7 +1312,6 @@ public class LLLCodeGenerator {
         if (opcodeDesc.ret()>1)
             error("Only supported opcodes that return 0 or 1 value",node);
 
-
         int operations = node.argCount() - opcodeDesc.require()  +1;
         // Note that operations are pushed in the opposite of orden of appearaance in text
         // (GT A B) -> Push A, Push B, GT
@@ -1065,15 +1322,20 @@ public class LLLCodeGenerator {
         // When accumulating non-commutative operations, this also works as expected:
         // E.g. (SUB 8 2 2) = PUSH 2, PUSH 2, PUSH 8  = ((8-2)-2)
 
+        // Constant folding is done bottom-up: each argument block has its value
+        // when it is a constant, so no argument is evaluated twice
+        BigInteger[] args = new BigInteger[node.argCount()];
         for (int i = node.argCount()-1; i >=0; i--) {
-            block.append(helper, getCodeFor(node, node.argAt(i)));
+            CodeBlock arg = getCodeFor(node, node.argAt(i));
+            args[i] = (arg == null) ? null : arg.getConstant();
+            block.append(helper, arg);
             stackLevel++;
         }
         block.startWrite();
         for(int i=0;i<operations;i++) {
-            block.writer().write(opcodeByte);
+            block.write(opcodeDesc);
             if (addCode != null)
-                block.writer().write(addCode.opcode);
+                block.write(addCode);
         }
         // The following opcodes do not push anything on the stack. The language requires that
         // every expression pushes a value, so a dummy value must be pushed.
@@ -1094,17 +1356,140 @@ public class LLLCodeGenerator {
 
         block.endWrite();
         stackLevel -= node.argCount();
+
+        // the value is pushed instead, unless the push is longer than the code
+        // (a negative number or a large power takes a PUSH32)
+        BigInteger folded = foldValues(opcodeDesc, addCode, args);
+        if (folded != null) {
+            byte[] value = EVMArithmetic.toPushBytes(folded);
+            if (1 + value.length <= block.writeOffset()) {
+                block = new CodeBlock(node.ref);
+                block.startWrite();
+                codePUSHValue(node, block, value);
+                block.endWrite();
+            }
+            block.setConstant(folded);
+        }
         return block;
 
     }
 
-    public int getFuncIndex(String opcode) {
-        for(int i =functions.size()-1;i>=0;i--) {
-            if (functions.get(i).name.equals(opcode)) {
-                return i;
-            }
+    // Constant folding: returns the value of o when it can be computed at compile
+    // time, or null. Numbers, constant macros, macro arguments, macro calls and
+    // pure opcodes over them are constant. Memory variables are not, since they are
+    // allocated by the code generator.
+    public BigInteger evalConstant(LLLNode node, Object o) throws LLLCompilationError {
+        if (!foldConstants)
+            return null;
+        if (o instanceof LLLNode)
+            return evalConstantNode((LLLNode) o);
+        if (!(o instanceof LLLLiteral))
+            return null;
+
+        LLLLiteral literal = (LLLLiteral) o;
+        if (literal.isNumber()) {
+            if (EVMArithmetic.isWord(literal.value))
+                return literal.value;
+            return null;
+        }
+        String lit = literal.getKey();
+        int found = findReplacement(lit);
+        if (found >= 0) {
+            Replacement r = replacements.get(found);
+            if (r.isVar)
+                return null;
+            int oldScope = currentReplacementScope;
+            currentReplacementScope = r.depth;
+            BigInteger v = evalConstant(node, r.repNode);
+            currentReplacementScope = oldScope;
+            return v;
         }
-        return -1;
+        if (lit.startsWith("$"))
+            return null;
+        Macro m = macros.get(lit);
+        if ((m != null) && (m.args == null))
+            return evalConstant(node, m.code);
+        return null;
+    }
+
+    BigInteger evalConstantNode(LLLNode node) throws LLLCompilationError {
+        if (node.kind == LLLNode.Kind.OPCODE)
+            return foldOpcode(node, node.op, node.addCode);
+        if (node.kind != LLLNode.Kind.CALL)
+            return null;
+        // same precedence as generateInnerCodeBlock
+        String opcode = node.key;
+        if (getFuncIndex(opcode) >= 0)
+            return null;
+
+        Macro m = macros.get(opcode);
+        if (m == null)
+            return null;
+        if (m.args == null) {
+            if (node.argCount() != 0)
+                return null;
+            return evalConstant(node, m.code);
+        }
+        if (node.argCount() != m.args.size())
+            return null;
+        int scope = replacements.size();
+        for (int i = 0; i < m.args.size(); i++)
+            addReplacement(new Replacement(((LLLLiteral) m.args.get(i)).getKey(), node.argAt(i), scope));
+        BigInteger v = evalConstant(node, m.code);
+        replacements.popTo(scope);
+        return v;
+    }
+
+    // Evaluates the arguments of a pure opcode, for constant conditions. The
+    // code of opcodes is folded by codeOpcode.
+    BigInteger foldOpcode(LLLNode node, OpCode op, OpCode addCode) throws LLLCompilationError {
+        if ((!foldConstants) || (!EVMArithmetic.isPure(op)))
+            return null;
+        int argc = node.argCount();
+        if ((op.require() > argc) || ((op.require() != 2) && (op.require() != argc)))
+            return null; // codeOpcode reports it
+
+        BigInteger[] args = new BigInteger[argc];
+        for (int i = 0; i < argc; i++) {
+            args[i] = evalConstant(node, node.argAt(i));
+            if (args[i] == null)
+                return null;
+        }
+        return foldValues(op, addCode, args);
+    }
+
+    // Evaluates a pure opcode with constant arguments the same way codeOpcode
+    // generates it: (SUB 8 2 2) is ((8-2)-2), and each operation is followed by
+    // addCode. Returns null if an argument is not constant.
+    BigInteger foldValues(OpCode op, OpCode addCode, BigInteger[] args) {
+        if ((!foldConstants) || (!EVMArithmetic.isPure(op)))
+            return null;
+        int argc = args.length;
+        for (int i = 0; i < argc; i++)
+            if (args[i] == null)
+                return null;
+
+        BigInteger v;
+        if (op.require() != 2) {
+            v = EVMArithmetic.eval(op, args);
+            if (addCode != null)
+                v = EVMArithmetic.eval(addCode, v);
+            return v;
+        }
+        v = args[0];
+        for (int i = 1; i < argc; i++) {
+            v = EVMArithmetic.eval(op, v, args[i]);
+            if (addCode != null)
+                v = EVMArithmetic.eval(addCode, v);
+        }
+        return v;
+    }
+
+    public int getFuncIndex(String opcode) {
+        Integer i = functionsByName.get(opcode);
+        if (i == null)
+            return -1;
+        return i;
     }
 
 
@@ -1132,62 +1517,41 @@ public class LLLCodeGenerator {
 
             int scope = replacements.size();
             for (int i = 0; i < m.args.size(); i++) {
-                replacements.add(new Replacement((String) m.args.get(i), node.argAt(i), scope));
+                addReplacement(new Replacement(((LLLLiteral) m.args.get(i)).getKey(), node.argAt(i), scope));
             }
             block = getCodeFor(node, m.code);
-            for (int i = 0; i < m.args.size(); i++) {
-                replacements.pop();
-            }
+            replacements.popTo(scope);
         }
         return block;
     }
 
     public CodeBlock generateInnerCodeBlock(LLLNode node) throws LLLCompilationError {
-
-        //block.startWrite();
-        String opcode = node.opcode.toUpperCase();
-        OpCode addCode = null;
-        AliasReplacement  ar = getAlias(opcode);
-        if (ar!=null) {
-            opcode= ar.opcode;
-            addCode = ar.addCode;
+        if (node.kind == null)
+            error("missing opcode", node);
+
+        // The kind of node was resolved by the parser: keywords first, then EVM
+        // opcodes, then functions and macros.
+        String opcode = node.key;
+        switch (node.kind) {
+            case FUNC: return codeFUNC(node,opcode);
+            case SEQ: return codeSEQ(node,opcode);
+            case AND_OR: return codeAND_OR(node,opcode);
+            case IF: return codeIF(node,opcode);
+            case FOR: return codeFOR(node,opcode);
+            case WHILE: return codeWHILE(node,opcode);
+            case UNTIL: return codeUNTIL(node,opcode);
+            case WHEN_UNLESS: return codeWHEN_UNLESS(node,opcode);
+            case WITH: return codeWITH(node,opcode);
+            case ASM: return codeASM(node);
+            case SEND: return codeSEND(node);
+            case REVERT: return codeREVERT(node);
+            case DEF: return codeDEF(node);
+            case LOCAL: return codeLOCAL(node);
+            case VARDEPTH: return codeVARDEPTH(node);
+            case LIT: return codeLIT(node);
+            case OPCODE: return codeOpcode(node,node.op,node.addCode);
+            default: break;
         }
-        if (opcode.equals("FUNC"))
-            return codeFUNC(node,opcode); else
-
-        if (opcode.equals("SEQ"))
-            return codeSEQ(node,opcode); else
-        if ((opcode.equals("&&")) || (opcode.equals("||")))
-            return codeAND_OR(node,opcode); else
-        if ((opcode.equals("IF")))
-            return codeIF(node,opcode); else
-        if ((opcode.equals("FOR")))
-            return codeFOR(node,opcode); else
-        if ((opcode.equals("WHILE")))
-            return codeWHILE(node,opcode); else
-        if ((opcode.equals("UNTIL")))
-            return codeUNTIL(node,opcode); else
-        if ((opcode.equals("WHEN")) || (opcode.equals("UNLESS")))
-            return codeWHEN_UNLESS(node,opcode) ; else
-        if ((opcode.equals("WITH")))
-            return codeWITH(node,opcode); else
-        if ((opcode.equals("ASM")))
-            return codeASM(node); else
-        if ((opcode.equals("SEND")))  // this is in conflict with SEND opcode
-            return codeSEND(node); else
-        if ((opcode.equals("REVERT")))  // this is in conflict with SEND opcode
-            return codeREVERT(node); else
-        if ((opcode.equals("DEF")))  // this is in conflict with SEND opcode
-            return codeDEF(node); else
-        if ((opcode.equals("LOCAL")))  //
-            return codeLOCAL(node); else
-        if ((opcode.equals("VARDEPTH")))  //
-            return codeVARDEPTH(node); else
-        if ((opcode.equals("LIT")))  //
-            return codeLIT(node);
-
-        if (isOpcode(opcode))
-            return codeOpcode(node,opcode,addCode);
 
         int f = getFuncIndex(opcode);
         if (f>=0)
@@ -0,0 +1,181 @@
+package co.usc.lll;
+
+import co.usc.lll.asm.CodeBlock;
+import co.usc.lll.asm.EVMAssemblerHelper;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+// The state of a single compilation: the parsed program, the code generator
+// with its symbol tables, and the result. Only the config and the include
+// cache are shared with other compilations, so compilations can run in
+// parallel, each one in a single thread.
+public class LLLCompilation {
+    final String name;
+    final LLLCompilerConfig config;
+    LLLParser parser;
+    LLLCodeGenerator codeGenerator;
+    EVMAssemblerHelper helper; // of the code generator, or read from the compile cache
+    LLLNode rootNode;
+    CodeBlock block;
+    String source;
+    Map<String, Set<String>> includeGraph = Collections.emptyMap();
+    LLLCompilationError error;
+
+    public LLLCompilation(String name, LLLCompilerConfig config) {
+        this.name = name;
+        this.config = config;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public LLLCompilerConfig getConfig() {
+        return config;
+    }
+
+    public CodeBlock getCodeBlock() {
+        return block;
+    }
+
+    // The code, or null if the compilation failed
+    public byte[] getCode() {
+        return (block == null) ? null : block.getCode();
+    }
+
+    // The error that stopped the compilation, or null
+    public LLLCompilationError getError() {
+        return error;
+    }
+
+    public EVMAssemblerHelper getHelper() {
+        return helper;
+    }
+
+    // For each source file, the files it includes (canonical paths)
+    public Map<String, Set<String>> getIncludeGraph() {
+        return includeGraph;
+    }
+
+    // Code bytes saved by shrinking label references
+    public int getRelaxationSavings() {
+        return (helper == null) ? 0 : helper.getRelaxationSavings();
+    }
+
+    // Code bytes removed by the peephole optimizer
+    public int getPeepholeSavings() {
+        return (helper == null) ? 0 : helper.getPeepholeSavings();
+    }
+
+    // Code bytes removed because they could not be executed
+    public int getDeadCodeSavings() {
+        return (helper == null) ? 0 : helper.getDeadCodeSavings();
+    }
+
+    // Keeps an unexpected exception as the error of the compilation, so that
+    // it does not stop the other compilations of a batch
+    void internalError(RuntimeException e) {
+        error = new LLLCompilationError("Internal error: " + e, e);
+        block = null;
+    }
+
+    LLLCodeGenerator newCodeGenerator() {
+        LLLCodeGenerator g = new LLLCodeGenerator();
+        g.getHelper().setRelaxBranches(config.relaxBranches);
+        if (!config.optimize) {
+            g.getHelper().setOptimizer(null);
+            g.getHelper().setDeadCodeEliminator(null);
+            g.getHelper().setJumpThreader(null);
+        }
+        g.setFoldConstants(config.optimize);
+        g.setInlineSize(config.optimize ? config.inlineSize : -1);
+        return g;
+    }
+
+    IncludeExpander newIncludeExpander(String mainFile) throws LLLCompilationError {
+        IncludeExpander expander = new IncludeExpander(mainFile, config.includeCache, config.includeExecutor);
+        includeGraph = expander.getIncludeGraph();
+        return expander;
+    }
+
+    public void compile(String s) throws LLLCompilationError {
+        try {
+            source = s;
+            CompileCache cache = config.compileCache;
+            String key = null;
+            if (cache != null) {
+                key = cache.key(config, s.getBytes(StandardCharsets.UTF_8));
+                if (cache.load(key, this, IncludeExpander.SOURCE, s))
+                    return;
+            }
+            codeGenerator = newCodeGenerator();
+            helper = codeGenerator.getHelper();
+
+            if (config.compactTree) {
+                LLLTreeParser treeParser = new LLLTreeParser();
+                parser = treeParser;
+                LLLTree tree = treeParser.parseTree(s);
+                newIncludeExpander(null).expand(tree);
+                rootNode = tree.getRoot();
+            } else {
+                parser = new LLLParser();
+                rootNode = parser.parse(s);
+                newIncludeExpander(null).expand(rootNode);
+            }
+            block = codeGenerator.generateCodeBlock(rootNode);
+            if (cache != null)
+                cache.store(key, this, IncludeExpander.SOURCE, s);
+        } catch (LLLCompilationError e) {
+            error = e;
+            throw e;
+        }
+    }
+
+    public void compileFile(String path) throws LLLCompilationError {
+        try {
+            source = null;
+            CompileCache cache = config.compileCache;
+            String key = null;
+            String mainFile = null;
+            if (cache != null) {
+                try {
+                    mainFile = Paths.get(path).toRealPath().toString();
+                    key = cache.key(config, Files.readAllBytes(Paths.get(path)));
+                } catch (IOException e) {
+                    throw new LLLCompilationError("Source file not found: "+path);
+                }
+                if (cache.load(key, this, mainFile, null))
+                    return;
+            }
+            codeGenerator = newCodeGenerator();
+            helper = codeGenerator.getHelper();
+
+            LLLTree tree = null;
+            try {
+                if (config.compactTree)
+                    tree = LLLCompiler.parseFileTree(path);
+                else
+                    rootNode = LLLCompiler.parseFile(path);
+            } catch (IOException e) {
+                throw new LLLCompilationError("Source file not found: "+path);
+            }
+            if (config.compactTree) {
+                newIncludeExpander(path).expand(tree);
+                rootNode = tree.getRoot();
+            } else
+                newIncludeExpander(path).expand(rootNode);
+            block = codeGenerator.generateCodeBlock(rootNode);
+            if (cache != null)
+                cache.store(key, this, mainFile, null);
+        } catch (LLLCompilationError e) {
+            error = e;
+            throw e;
+        }
+    }
+}
@@ -4,4 +4,8 @@ public class LLLCompilationError extends  Exception {
     public LLLCompilationError(String s) {
         super(s);
     }
+
+    public LLLCompilationError(String s, Throwable cause) {
+        super(s, cause);
+    }
 }
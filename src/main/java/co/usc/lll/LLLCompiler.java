@@ -4,10 +4,17 @@ import co.usc.lll.asm.CodeBlock;
 import co.usc.lll.asm.EVMAssemblerHelper;
 
 import java.io.IOException;
-import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
 
 public class LLLCompiler {
 
@@ -17,81 +24,226 @@ public class LLLCompiler {
         return c.block.getCode();
     }
 
+    // The config is immutable and a new compilation is created for each source,
+    // so a compiler can be used by many threads, with compileSource(),
+    // compilePath() and compileAll(). compile() and compileFile() keep the last
+    // compilation in the fields below, for a compiler used by a single thread.
+    volatile LLLCompilerConfig config;
+    LLLCompilation last;
     LLLParser parser;
     LLLCodeGenerator codeGenerator;
     LLLNode rootNode;
     CodeBlock block;
     String source;
 
+    public LLLCompiler() {
+        this(LLLCompilerConfig.DEFAULT);
+    }
+
+    public LLLCompiler(LLLCompilerConfig config) {
+        this.config = config;
+    }
+
+    public LLLCompilerConfig getConfig() {
+        return config;
+    }
+
+    public void setConfig(LLLCompilerConfig config) {
+        this.config = config;
+    }
+
     public EVMAssemblerHelper getHelper() {
-        return codeGenerator.getHelper();
+        return (last == null) ? null : last.getHelper();
     }
 
     public CodeBlock getCodeBlock() {
         return block;
     }
 
-    static String readFile(String path, Charset encoding)
-            throws IOException
-    {
-        byte[] encoded = Files.readAllBytes(Paths.get(path));
-        return new String(encoded, encoding);
-    }
-
-    public boolean includeFiles(LLLNode parent) throws LLLCompilationError {
-        boolean expand = false;
-        if (parent instanceof LLLNode) {
-            if (parent.opcode.equalsIgnoreCase("INCLUDE")) {
-                for(int i=0;i<parent.argCount();i++) {
-                    Object a = parent.argAt(i);
-                    if (a instanceof String) {
-                        String fromFile = null;
-                        try {
-                            String fileName = (String) a;
-                            if ((fileName.length()<2) || (!fileName.startsWith("\"")) || (!fileName.endsWith("\"")))
-                                throw new LLLCompilationError("Filename must be a string literal: "+fromFile);
-                            fileName = fileName.substring(1,fileName.length()-1);
-                            fromFile = readFile(fileName, StandardCharsets.UTF_8);
-                            parser = new LLLParser();
-                            LLLNode iNode = parser.parse(fromFile);
-                            // now parent must be replaced by SEQ, and each file
-                            // by a iNode
-                            parent.opcode = "SEQ";
-                            parent.elements.set(0,parent.opcode);
-                            parent.elements.set(i+1,iNode);
-                            expand = true;
-                        } catch (IOException e) {
-                            throw new LLLCompilationError("Include file not found: "+fromFile);
-                        }
-                    }
-                }
-            } else
-            // recurse
-            {
-                for(int i=0;i<parent.argCount();i++) {
-                    Object a = parent.argAt(i);
-                    if (a instanceof LLLNode) {
-                        if (includeFiles((LLLNode) a))
-                            expand = true;
-                    }
-                }
-            }
+    // The savings below are 0 before the first compilation
+
+    // Code bytes saved in the last compilation by shrinking label references
+    public int getRelaxationSavings() {
+        EVMAssemblerHelper helper = getHelper();
+        return (helper == null) ? 0 : helper.getRelaxationSavings();
+    }
+
+    // Code bytes removed in the last compilation by the peephole optimizer
+    public int getPeepholeSavings() {
+        EVMAssemblerHelper helper = getHelper();
+        return (helper == null) ? 0 : helper.getPeepholeSavings();
+    }
+
+    // Code bytes removed in the last compilation because they could not be executed
+    public int getDeadCodeSavings() {
+        EVMAssemblerHelper helper = getHelper();
+        return (helper == null) ? 0 : helper.getDeadCodeSavings();
+    }
+
+    public void setCompactTree(boolean compactTree) {
+        config = config.withCompactTree(compactTree);
+    }
+
+    public void setIncludeCache(IncludeCache includeCache) {
+        config = config.withIncludeCache(includeCache);
+    }
+
+    public void setIncludeExecutor(Executor includeExecutor) {
+        config = config.withIncludeExecutor(includeExecutor);
+    }
+
+    public void setCompileCache(CompileCache compileCache) {
+        config = config.withCompileCache(compileCache);
+    }
+
+    // Source files are memory-mapped and parsed as they are decoded, so no copy
+    // of the whole text is kept in the heap.
+    static LLLNode parseFile(String path) throws IOException, LLLCompilationError {
+        ByteBufferReader reader = ByteBufferReader.map(Paths.get(path));
+        try {
+            return new LLLParser().parse(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    static LLLTree parseFileTree(String path) throws IOException, LLLCompilationError {
+        ByteBufferReader reader = ByteBufferReader.map(Paths.get(path));
+        try {
+            return new LLLTreeParser().parseTree(reader);
+        } finally {
+            reader.close();
         }
-        return  expand;
+    }
+
+    // Include graph of the last compilation
+    public Map<String, Set<String>> getIncludeGraph() {
+        return (last == null) ? Collections.<String, Set<String>>emptyMap() : last.getIncludeGraph();
+    }
+
+    public void includeFiles(LLLTree tree) throws LLLCompilationError {
+        new IncludeExpander(null, config.includeCache, config.includeExecutor).expand(tree);
+    }
+
+    public boolean includeFiles(LLLNode root) throws LLLCompilationError {
+        return new IncludeExpander(null, config.includeCache, config.includeExecutor).expand(root);
+    }
+
+    void setLast(LLLCompilation c) {
+        last = c;
+        parser = c.parser;
+        codeGenerator = c.codeGenerator;
+        rootNode = c.rootNode;
+        block = c.block;
+        source = c.source;
     }
 
     public void compile(String s) throws LLLCompilationError {
-        source =s;
-        parser = new LLLParser();
-        codeGenerator = new LLLCodeGenerator();
+        LLLCompilation c = new LLLCompilation(IncludeExpander.SOURCE, config);
+        try {
+            c.compile(s);
+        } finally {
+            setLast(c);
+        }
+    }
+
+    public void compileFile(String path) throws LLLCompilationError {
+        LLLCompilation c = new LLLCompilation(path, config);
+        try {
+            c.compileFile(path);
+        } finally {
+            setLast(c);
+        }
+    }
 
-        rootNode = parser.parse(s);
-        boolean expansion = false;
-        do {
-            expansion = includeFiles(rootNode);
-        } while(expansion);
-        block= codeGenerator.generateCodeBlock(rootNode);
+    public LLLCompilation compileSource(String name, String s) throws LLLCompilationError {
+        LLLCompilation c = new LLLCompilation(name, config);
+        c.compile(s);
+        return c;
+    }
 
+    public LLLCompilation compilePath(String path) throws LLLCompilationError {
+        LLLCompilation c = new LLLCompilation(path, config);
+        c.compileFile(path);
+        return c;
     }
 
+    // Compiles each source (by name) on the fork-join common pool
+    public Map<String, LLLCompilation> compileAll(Map<String, String> sources) throws InterruptedException {
+        return compileAll(sources, ForkJoinPool.commonPool());
+    }
+
+    // Compiles each source (by name) as a task on the executor. A source that
+    // does not compile does not stop the others: its compilation has the error.
+    // The compilations are returned in the order of sources.
+    public Map<String, LLLCompilation> compileAll(Map<String, String> sources, Executor executor) throws InterruptedException {
+        final LLLCompilerConfig cfg = config;
+        Map<String, FutureTask<LLLCompilation>> tasks = new LinkedHashMap<>();
+        for (Map.Entry<String, String> e : sources.entrySet()) {
+            final String name = e.getKey();
+            final String s = e.getValue();
+            tasks.put(name, new FutureTask<>(new Callable<LLLCompilation>() {
+                public LLLCompilation call() {
+                    LLLCompilation c = new LLLCompilation(name, cfg);
+                    try {
+                        c.compile(s);
+                    } catch (LLLCompilationError ignored) {
+                        // kept in the compilation
+                    } catch (RuntimeException e) {
+                        c.internalError(e);
+                    }
+                    return c;
+                }
+            }));
+        }
+        return runAll(tasks, executor);
+    }
+
+    // Like compileAll(), for source files
+    public Map<String, LLLCompilation> compileFiles(Collection<String> paths, Executor executor) throws InterruptedException {
+        final LLLCompilerConfig cfg = config;
+        Map<String, FutureTask<LLLCompilation>> tasks = new LinkedHashMap<>();
+        for (final String path : paths) {
+            tasks.put(path, new FutureTask<>(new Callable<LLLCompilation>() {
+                public LLLCompilation call() {
+                    LLLCompilation c = new LLLCompilation(path, cfg);
+                    try {
+                        c.compileFile(path);
+                    } catch (LLLCompilationError ignored) {
+                        // kept in the compilation
+                    } catch (RuntimeException e) {
+                        c.internalError(e);
+                    }
+                    return c;
+                }
+            }));
+        }
+        return runAll(tasks, executor);
+    }
+
+    static Map<String, LLLCompilation> runAll(Map<String, FutureTask<LLLCompilation>> tasks, Executor executor) throws InterruptedException {
+        for (FutureTask<LLLCompilation> f : tasks.values())
+            executor.execute(f);
+        Map<String, LLLCompilation> r = new LinkedHashMap<>();
+        try {
+            for (Map.Entry<String, FutureTask<LLLCompilation>> e : tasks.entrySet()) {
+                FutureTask<LLLCompilation> f = e.getValue();
+                f.run(); // if no thread has started it yet, it runs here
+                try {
+                    r.put(e.getKey(), f.get());
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    if (cause instanceof RuntimeException)
+                        throw (RuntimeException) cause;
+                    if (cause instanceof Error)
+                        throw (Error) cause;
+                    throw new IllegalStateException(cause);
+                }
+            }
+        } finally {
+            for (FutureTask<LLLCompilation> f : tasks.values())
+                f.cancel(true); // does nothing if it is done
+        }
+        return r;
+    }
 }
@@ -0,0 +1,99 @@
+package co.usc.lll;
+
+import java.util.concurrent.Executor;
+
+// The options of a compiler. A config is never modified, the with methods
+// return a changed copy, so the same config can be used by compilations
+// running in many threads.
+public final class LLLCompilerConfig {
+    public static final LLLCompilerConfig DEFAULT = new LLLCompilerConfig(false, true, true, null, null, null, 16);
+
+    final boolean compactTree;
+    final boolean relaxBranches;
+    final boolean optimize;
+    final IncludeCache includeCache;  // null to read include files on each compilation
+    final Executor includeExecutor;   // null to parse include files on the compiling thread
+    final CompileCache compileCache;  // null to always compile
+    final int inlineSize;             // negative to never inline functions
+
+    LLLCompilerConfig(boolean compactTree, boolean relaxBranches, boolean optimize,
+                      IncludeCache includeCache, Executor includeExecutor, CompileCache compileCache,
+                      int inlineSize) {
+        this.compactTree = compactTree;
+        this.relaxBranches = relaxBranches;
+        this.optimize = optimize;
+        this.includeCache = includeCache;
+        this.includeExecutor = includeExecutor;
+        this.compileCache = compileCache;
+        this.inlineSize = inlineSize;
+    }
+
+    public boolean getCompactTree() {
+        return compactTree;
+    }
+
+    public boolean getRelaxBranches() {
+        return relaxBranches;
+    }
+
+    public boolean getOptimize() {
+        return optimize;
+    }
+
+    public IncludeCache getIncludeCache() {
+        return includeCache;
+    }
+
+    public Executor getIncludeExecutor() {
+        return includeExecutor;
+    }
+
+    public CompileCache getCompileCache() {
+        return compileCache;
+    }
+
+    public int getInlineSize() {
+        return inlineSize;
+    }
+
+    // Parse into an LLLTree instead of a graph of LLLNodes. The tree takes much
+    // less memory for large sources; the code generated is the same.
+    public LLLCompilerConfig withCompactTree(boolean compactTree) {
+        return new LLLCompilerConfig(compactTree, relaxBranches, optimize, includeCache, includeExecutor, compileCache, inlineSize);
+    }
+
+    // Shrink label references to the smallest PUSH that holds the address
+    public LLLCompilerConfig withRelaxBranches(boolean relaxBranches) {
+        return new LLLCompilerConfig(compactTree, relaxBranches, optimize, includeCache, includeExecutor, compileCache, inlineSize);
+    }
+
+    // Inline functions, run the peephole optimizer, thread jumps and remove
+    // unreachable code
+    public LLLCompilerConfig withOptimize(boolean optimize) {
+        return new LLLCompilerConfig(compactTree, relaxBranches, optimize, includeCache, includeExecutor, compileCache, inlineSize);
+    }
+
+    // Included files are taken from the cache, if there is one. The cache is
+    // thread-safe, it can be shared by all the compilations.
+    public LLLCompilerConfig withIncludeCache(IncludeCache includeCache) {
+        return new LLLCompilerConfig(compactTree, relaxBranches, optimize, includeCache, includeExecutor, compileCache, inlineSize);
+    }
+
+    // Include files are read and parsed on the executor, if there is one, so
+    // that many files are parsed at the same time.
+    public LLLCompilerConfig withIncludeExecutor(Executor includeExecutor) {
+        return new LLLCompilerConfig(compactTree, relaxBranches, optimize, includeCache, includeExecutor, compileCache, inlineSize);
+    }
+
+    // Code compiled before is read from the cache, if there is one
+    public LLLCompilerConfig withCompileCache(CompileCache compileCache) {
+        return new LLLCompilerConfig(compactTree, relaxBranches, optimize, includeCache, includeExecutor, compileCache, inlineSize);
+    }
+
+    // When optimizing, functions whose body takes up to inlineSize bytes are
+    // expanded at every call, and functions called once are expanded anyway.
+    // A negative size disables inlining.
+    public LLLCompilerConfig withInlineSize(int inlineSize) {
+        return new LLLCompilerConfig(compactTree, relaxBranches, optimize, includeCache, includeExecutor, compileCache, inlineSize);
+    }
+}
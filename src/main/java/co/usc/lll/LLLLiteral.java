@@ -0,0 +1,95 @@
+package co.usc.lll;
+
+import co.usc.lll.asm.EVMArithmetic;
+
+import java.math.BigInteger;
+
+// A literal argument of an LLLNode. The parser classifies each token once, and
+// numbers are parsed at that time, so the code generator never has to try to
+// parse a name as a number.
+public class LLLLiteral {
+    public enum Kind {
+        DECIMAL,    // 1234
+        HEX,        // 0x1234
+        STRING,     // "text"
+        IDENTIFIER, // variable, macro, function or opcode name
+        LOCAL       // $var
+    }
+
+    public final String text;
+    public final Kind kind;
+    public final BigInteger value; // only for numbers
+    String key; // upper case text, computed on first use
+
+    public LLLLiteral(String text) {
+        this.text = text;
+        this.kind = classify(text);
+        if (kind == Kind.DECIMAL)
+            value = new BigInteger(text, 10);
+        else if (kind == Kind.HEX)
+            value = new BigInteger(text.substring(2), 16);
+        else
+            value = null;
+    }
+
+    public boolean isNumber() {
+        return (kind == Kind.DECIMAL) || (kind == Kind.HEX);
+    }
+
+    // Names are case insensitive. The upper case text is the key used in the
+    // symbol tables, interned so that all uses of a name share the same string.
+    public String getKey() {
+        if (key == null)
+            key = text.toUpperCase().intern();
+        return key;
+    }
+
+    // Bytes to push for a number. Negative numbers keep their two's complement
+    // bytes, as they always did.
+    public byte[] getPushValue() {
+        if ((value.signum() >= 0) && (EVMArithmetic.isWord(value)))
+            return EVMArithmetic.toPushBytes(value);
+        return value.toByteArray();
+    }
+
+    static boolean isDigit(char c) {
+        return (c >= '0') && (c <= '9');
+    }
+
+    static boolean isHexDigit(char c) {
+        return isDigit(c) || ((c >= 'a') && (c <= 'f')) || ((c >= 'A') && (c <= 'F'));
+    }
+
+    // Same numbers that BigInteger accepts: an optional sign and at least one digit
+    static boolean isNumber(String s, int from, boolean hex) {
+        if ((from < s.length()) && ((s.charAt(from) == '-') || (s.charAt(from) == '+')))
+            from++;
+        if (from >= s.length())
+            return false;
+        for (int i = from; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (hex ? !isHexDigit(c) : !isDigit(c))
+                return false;
+        }
+        return true;
+    }
+
+    public static Kind classify(String s) {
+        if (s.length() == 0)
+            return Kind.IDENTIFIER;
+        char c = s.charAt(0);
+        if (c == '"')
+            return Kind.STRING;
+        if (c == '$')
+            return Kind.LOCAL;
+        if ((s.length() >= 2) && (c == '0') && (s.charAt(1) == 'x'))
+            return isNumber(s, 2, true) ? Kind.HEX : Kind.IDENTIFIER;
+        if (isNumber(s, 0, false))
+            return Kind.DECIMAL;
+        return Kind.IDENTIFIER;
+    }
+
+    public String toString() {
+        return text;
+    }
+}
@@ -1,23 +1,125 @@
 package co.usc.lll;
 
+import co.usc.lll.asm.LineIndex;
+import co.usc.lll.asm.OpCode;
 import co.usc.lll.asm.SourceRef;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class LLLNode {
+    // What the code generator does with a node, decided once when its opcode is set
+    public enum Kind {
+        FUNC, SEQ, AND_OR, IF, FOR, WHILE, UNTIL, WHEN_UNLESS, WITH, ASM, SEND, REVERT,
+        DEF, LOCAL, VARDEPTH, LIT,
+        OPCODE, // an EVM opcode, in op
+        CALL    // a function or a macro, looked up by key when the code is generated
+    }
+
+    static final Map<String, Kind> keywords = new HashMap<>();
+    static {
+        keywords.put("FUNC", Kind.FUNC);
+        keywords.put("SEQ", Kind.SEQ);
+        keywords.put("&&", Kind.AND_OR);
+        keywords.put("||", Kind.AND_OR);
+        keywords.put("IF", Kind.IF);
+        keywords.put("FOR", Kind.FOR);
+        keywords.put("WHILE", Kind.WHILE);
+        keywords.put("UNTIL", Kind.UNTIL);
+        keywords.put("WHEN", Kind.WHEN_UNLESS);
+        keywords.put("UNLESS", Kind.WHEN_UNLESS);
+        keywords.put("WITH", Kind.WITH);
+        keywords.put("ASM", Kind.ASM);
+        keywords.put("SEND", Kind.SEND); // this is in conflict with SEND opcode
+        keywords.put("REVERT", Kind.REVERT);
+        keywords.put("DEF", Kind.DEF);
+        keywords.put("LOCAL", Kind.LOCAL);
+        keywords.put("VARDEPTH", Kind.VARDEPTH);
+        keywords.put("LIT", Kind.LIT);
+    }
+
     public String opcode;
-    public List elements; // arguments can be LLLNodes or literals (BigInteger)
+    public Kind kind;     // null if there is no opcode
+    public String key;    // upper case opcode, interned
+    public OpCode op;     // for OPCODE
+    public OpCode addCode; // for OPCODE: applied after op, e.g. >= is LT ISZERO
+    public List elements; // arguments can be LLLNodes or literals (LLLLiteral)
     public String opening;
     public String argClose;
-    public int line;
     SourceRef ref ;
 
-    public LLLNode(String aopcode,String aopening,int aline,int start,String source) {
-        opcode = aopcode;
+    public LLLNode(String aopcode,String aopening,int start,String source,LineIndex lines) {
+        setOpcode(aopcode);
         opening= aopening;
-        line =aline;
         ref = new SourceRef(0,start,0,source); // position undefined, length not defined yet.
+        ref.lines = lines;
+    }
+
+    // position of the node in the source, computed from its start offset
+    public int getLine() {
+        return ref.getLine();
+    }
+
+    public int getColumn() {
+        return ref.getColumn();
+    }
+
+    public void setOpcode(String aopcode) {
+        setOpcode(aopcode, (aopcode == null) ? null : aopcode.toUpperCase().intern());
+    }
+
+    // akey is the upper case opcode, already known
+    void setOpcode(String aopcode, String akey) {
+        opcode = aopcode;
+        key = akey;
+        op = null;
+        addCode = null;
+        if (opcode == null) {
+            kind = null;
+            return;
+        }
+        kind = keywords.get(key);
+        if (kind != null)
+            return;
+        String name = key;
+        if (name.equals(">=")) {
+            name = "LT";
+            addCode = OpCode.ISZERO;
+        } else if (name.equals("<=")) {
+            name = "GT";
+            addCode = OpCode.ISZERO;
+        } else if (name.equals("!=")) {
+            name = "EQ";
+            addCode = OpCode.ISZERO;
+        }
+        if (OpCode.contains(name)) {
+            kind = Kind.OPCODE;
+            op = OpCode.code(OpCode.byteVal(name));
+        } else {
+            kind = Kind.CALL;
+            addCode = null;
+        }
+    }
+
+    // A deep copy. Literals are not modified, so they are shared.
+    public LLLNode copy() {
+        LLLNode n = new LLLNode(null, opening, ref.startChar, ref.source, ref.lines);
+        n.opcode = opcode;
+        n.kind = kind;
+        n.key = key;
+        n.op = op;
+        n.addCode = addCode;
+        n.argClose = argClose;
+        n.ref.length = ref.length;
+        if (elements != null) {
+            List<Object> copies = new ArrayList<Object>(elements.size());
+            for (Object e : elements)
+                copies.add((e instanceof LLLNode) ? ((LLLNode) e).copy() : e);
+            n.elements = copies;
+        }
+        return n;
     }
 
     public void setEndChar(int endChar) {
@@ -1,11 +1,13 @@
 package co.usc.lll;
 
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.util.Stack;
 
 public class LLLParser {
 
     public void error(String s) throws LLLCompilationError {
-        throw new LLLCompilationError(s+" at line "+st.line);
+        throw new LLLCompilationError(s+" at line "+st.getLine()+", column "+st.getColumn());
     }
 
     public String opposite(String t) throws LLLCompilationError {
@@ -39,10 +41,10 @@ public class LLLParser {
     void open(String opcode) {
         if (node != null)
             stack.push(node);
-        node= new LLLNode(opcode,token,st.line,st.start,st.getSource());
+        node= new LLLNode(opcode,token,st.start,st.getSource(),st.getLineIndex());
         if (opcode!=null) {
             node.assetElementsCreated();
-            node.elements.add(opcode);
+            node.elements.add(new LLLLiteral(opcode));
         }
     }
 
@@ -101,10 +103,14 @@ public class LLLParser {
         return op;
     }
 
+    protected void addElement(Object arg) {
+        node.assetElementsCreated();
+        node.elements.add(arg); // LLLNode or LLLLiteral
+    }
+
     protected void pushArgument(Object arg) throws LLLCompilationError {
         // set an arg
-        node.assetElementsCreated();
-        node.elements.add(arg); // assumes literal
+        addElement(arg);
         if (node.argClose != null) {
             if ((node.argClose.equals("]")) ||
                     (node.argClose.equals("]]"))) // address has passed, now close on next tokeb
@@ -115,58 +121,97 @@ public class LLLParser {
         }
     }
 
+    // The token found is a word or an operator
+    protected void addToken() throws LLLCompilationError {
+        token = st.getTokenFound();
+        addArgumentOrOpcode();
+    }
+
     protected void addArgumentOrOpcode() throws LLLCompilationError {
         // Now we can expect an opcode or a literal
         if (node == null)
             error("Unexpected word");
         if (!node.opcodeSet()) {
-            node.opcode = getStdOpcode(token);
+            node.setOpcode(getStdOpcode(token));
             // first element is both stored as opcode and as arg list.
             node.assetElementsCreated();
-            node.elements.add(token); // assumes literal
+            node.elements.add(new LLLLiteral(token));
         } else
-            pushArgument(token);
+            pushArgument(new LLLLiteral(token));
 
     }
 
     LLLNode parse(String data) throws LLLCompilationError {
+        return parse(new LLLTokenizer(data));
+    }
+
+    // The source is read as it is parsed, it is never in memory as a whole
+    LLLNode parse(Reader reader) throws LLLCompilationError {
+        try {
+            return parse(new LLLTokenizer(reader));
+        } catch (UncheckedIOException e) {
+            throw new LLLCompilationError("Cannot read source: " + e.getCause().getMessage());
+        }
+    }
+
+    LLLNode parse(LLLTokenizer tokenizer) throws LLLCompilationError {
         try {
-            st = new LLLTokenizer(data);
+            st = tokenizer;
 
             node = null;
             stack = new Stack<LLLNode>();
 
             while (st.hasMoreTokens()) {
-                //if (node==null)
-                //    node= new LLLNode(null,"");
-                token = st.nextToken();
-                //System.out.println(token);
-                if (token.equals("@")) {
-                    open("MLOAD");
-                    node.argClose = CloseOnNextToken;
-                } else
-                if (token.equals("@@")) {
-                    open("SLOAD");
-                    node.argClose = CloseOnNextToken;
-                } else
-                if (token.equals("(")) {
-                    open(null);
-                } else if (token.equals("{")) {
-                    open("seq");
-                } else if (token.equals("[")) {
-                    open("mstore");
-                    node.argClose = opposite(token);
-                } else if (token.equals("[[")) {
-                    open("sstore");
-                    node.argClose = opposite(token);
-                } else if ((token.equals("]")) || (token.equals("]]"))) {
-                    checkArgClose(node, token);
-                    // Do not close the virtual bracket, auto-close on next arg
-                } else if ((token.equals("}")) || (token.equals(")"))) {
-                    closeBracket();
-                } else
-                    addArgumentOrOpcode();
-
+                // brackets are told apart without creating their text, only
+                // words and operators are read as Strings
+                st.nextTokenSearch();
+                switch (st.getTokenKind()) {
+                    case OPEN:
+                        if (st.tokenIs("(")) {
+                            token = "(";
+                            open(null);
+                        } else if (st.tokenIs("{")) {
+                            token = "{";
+                            open("seq");
+                        } else if (st.tokenIs("[")) {
+                            token = "[";
+                            open("mstore");
+                            node.argClose = opposite(token);
+                        } else {
+                            token = "[[";
+                            open("sstore");
+                            node.argClose = opposite(token);
+                        }
+                        break;
+                    case CLOSE:
+                        if (st.tokenIs(")") || st.tokenIs("}")) {
+                            token = st.tokenIs(")") ? ")" : "}";
+                            closeBracket();
+                        } else {
+                            token = st.tokenIs("]") ? "]" : "]]";
+                            checkArgClose(node, token);
+                            // Do not close the virtual bracket, auto-close on next arg
+                        }
+                        break;
+                    case SYMBOL:
+                        if (st.tokenIs("@")) {
+                            token = "@";
+                            open("MLOAD");
+                            node.argClose = CloseOnNextToken;
+                            break;
+                        }
+                        if (st.tokenIs("@@")) {
+                            token = "@@";
+                            open("SLOAD");
+                            node.argClose = CloseOnNextToken;
+                            break;
+                        }
+                        // other symbols are operators
+                        addToken();
+                        break;
+                    default:
+                        addToken();
+                }
             }
             if (stack.size() != 0)
                 error("Open brackets when reaching EOF");
@@ -1,131 +1,233 @@
 package co.usc.lll;
 
+import co.usc.lll.asm.LineIndex;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.util.Enumeration;
 import java.util.NoSuchElementException;
 
+// Splits the source in tokens. The source is scanned as a char[] using lookup
+// tables for the character classes. Scanning a token only records its kind and
+// its start/end offsets; the token text is only created when it is asked for.
+// Names and operators are shared by all the equal tokens of the source. Numbers
+// and strings are not kept, since a table of constants has few repeated ones.
+//
+// The source can also be read from a Reader. Then chars only holds a window of
+// the source, from the start of the last token on, and it is refilled as the
+// scan advances, so the whole source is never in memory. Offsets are always
+// from the start of the source.
 public class LLLTokenizer implements Enumeration<Object> {
+    public enum TokenKind {
+        OPEN,   // ( { [ [[
+        CLOSE,  // ) } ] ]]
+        SYMBOL, // @ @@ && || >= ...
+        STRING, // "text"
+        WORD    // numbers, names and everything else
+    }
+
+    // character classes
+    static final byte OTHER = 0;
+    static final byte DELIMITER = 1;
+    static final byte SYMBOL = 2;
+    static final byte QUOTE = 3;
+    static final byte COMMENT = 4;
+
+    static final byte[] charClass = new byte[128];
+
+    static {
+        String delimiters = " \t\n\r\f";
+        // minus sign (-) is special because some macros use it as word separation in an identifier
+        // such as short-name.
+        String symbols = "(){}[]@|&%#!=><*^/%";
+        for (int i = 0; i < delimiters.length(); i++)
+            charClass[delimiters.charAt(i)] = DELIMITER;
+        for (int i = 0; i < symbols.length(); i++)
+            charClass[symbols.charAt(i)] = SYMBOL;
+        charClass['"'] = QUOTE;
+        charClass[';'] = COMMENT;
+    }
+
+    static byte classOf(char c) {
+        return (c < 128) ? charClass[c] : OTHER;
+    }
+
+    // two symbols that make a single token: [[ ]] @@ || >= <= != ** &&
+    static boolean isSymbolPair(char a, char b) {
+        switch (a) {
+            case '[': return b == '[';
+            case ']': return b == ']';
+            case '@': return b == '@';
+            case '|': return b == '|';
+            case '&': return b == '&';
+            case '*': return b == '*';
+            case '>': case '<': case '!': return b == '=';
+            default: return false;
+        }
+    }
+
     private int currentPosition;
     private int newPosition;
-    private int maxPosition;
-    public int line =0;
     private String str;
-    private String delimiters = " \t\n\r\f";
+    private char[] chars;
+    private int bufStart; // offset of chars[0] in the source
+    private int bufEnd;   // offset of the end of the chars read
+    private Reader reader; // null when the whole source is in chars
+    private LineIndex lines = new LineIndex(); // of the chars read so far
 
-    // minus sign (-) is special because some macros use it as word separation in an identifier
-    // such as short-name.
+    static final int READ_BUFFER_SIZE = 64 * 1024;
 
-    private String symbols = "(){}[]@|&%#!=><*^/%";
+    // names and operators already created, open addressing by hash of the chars
+    private String[] texts = new String[256];
+    private int textCount;
 
+    // The whole source, or null if it is read from a Reader
     public String getSource() {
+        if ((str == null) && (reader == null))
+            str = new String(chars, 0, bufEnd);
         return str;
     }
 
     public LLLTokenizer(String str) {
+        this(str.toCharArray(), str.length());
+        this.str = str;
+    }
+
+    public LLLTokenizer(CharSequence seq) {
+        this(toChars(seq), seq.length());
+    }
+
+    // The array is not copied, it must not be modified while tokenizing
+    public LLLTokenizer(char[] chars, int length) {
         currentPosition = 0;
         newPosition = -1;
-        this.str = str;
-        maxPosition = str.length();
+        this.chars = chars;
+        bufEnd = length;
+        lines.scan(chars, 0, length, 0);
+    }
+
+    // The reader is read as needed, and closed when the end is reached
+    public LLLTokenizer(Reader reader) {
+        this(new char[READ_BUFFER_SIZE], 0);
+        this.reader = reader;
+    }
+
+    static char[] toChars(CharSequence seq) {
+        char[] r = new char[seq.length()];
+        for (int i = 0; i < r.length; i++)
+            r[i] = seq.charAt(i);
+        return r;
+    }
 
+    // Reads more chars from the reader. The chars before the start of the last
+    // token are no longer needed and are dropped.
+    private boolean fill() {
+        if (reader == null)
+            return false;
+        try {
+            int drop = start - bufStart;
+            if (drop > 0) {
+                System.arraycopy(chars, drop, chars, 0, bufEnd - start);
+                bufStart = start;
+            }
+            int used = bufEnd - bufStart;
+            if (used == chars.length) { // a token longer than the buffer
+                char[] n = new char[chars.length * 2];
+                System.arraycopy(chars, 0, n, 0, used);
+                chars = n;
+            }
+            // a reader may return no chars, the callers need at least one
+            int read;
+            do
+                read = reader.read(chars, used, chars.length - used);
+            while (read == 0);
+            if (read < 0) {
+                reader.close();
+                reader = null;
+                return false;
+            }
+            lines.scan(chars, used, used + read, bufStart);
+            bufEnd += read;
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // skips a comment, up to the '\n' that ends it
+    private int skipComment(int startPos) {
+        int position = startPos;
+        while (((position < bufEnd) || (fill())) && (chars[position - bufStart] != '\n'))
+            position++;
+        return position;
     }
 
     private int skipDelimiters(int startPos) {
         int position = startPos;
-        boolean inCommnet = false;
-        while (position < maxPosition) {
-            char c = str.charAt(position);
-            if (c=='\n') {
-                line++;
-                inCommnet = false;
-            }
-            if (!inCommnet)
-            if (c==';') // comments in any place
-                inCommnet= true;
+        while ((position < bufEnd) || (fill())) {
+            byte cls = classOf(chars[position - bufStart]);
+            if (cls == COMMENT) // comments in any place
+                position = skipComment(position);
+            else if (cls == DELIMITER)
+                position++;
             else
-            if (delimiters.indexOf(c) < 0)
                 break;
-            position++;
         }
         return position;
     }
 
     /**
      * Skips ahead from startPos and returns the index of the next delimiter
-     * character encountered, or maxPosition if no such delimiter is found.
+     * character encountered, or the end of the source if no such delimiter is found.
      */
-    boolean prevIs(char a, char b,String c) {
-        return (c.charAt(0)==a) && (c.charAt(1)==b);
-    }
-
     private int scanToken(int startPos) {
         int position = startPos;
         char prevSymbol = '\0';
-        boolean inCommnet = false;
         boolean inString = false;
-        while (position < maxPosition) {
-            char c = str.charAt(position);
-            if (c=='\n') {
-                line++;
-                inCommnet = false;
+        while ((position < bufEnd) || (fill())) {
+            char c = chars[position - bufStart];
+            byte cls = classOf(c);
+            if (cls == QUOTE)
+                inString = !inString;
+            else if (cls == COMMENT) { // comments in any place
+                if ((!inString) && (prevSymbol != '\0') && (prevSymbol != 'A')) // a non-symbol following a symbols? break after the first
+                    break;
+                // a comment that follows a token without a space is part of the token
+                return skipComment(position);
             }
-            if (!inCommnet) {
-                if (c =='"') {
-                    inString =!inString;
-                }
-                else
-                if (c == ';') // comments in any place
-                    inCommnet = true;
-                else
-                // Only stop advancing identifier if a delimiter is found
-                if  (delimiters.indexOf(c) >= 0) {
-                       break;
-                }
-                if (!inString) {
-                    // Now let's see if it is a special symbol
-                    if (symbols.indexOf(c) >= 0) {// include the symbol
-                        if (prevSymbol == 'A') // marks a non-symbol
-                            //   if (c!='-') // special case for alpha-alpha
-                            break;
-
-                        if ((prevIs(prevSymbol, c, "[[")) ||
-                                (prevIs(prevSymbol, c, "]]")) ||
-                                (prevIs(prevSymbol, c, "@@")) ||
-                                (prevIs(prevSymbol, c, "||")) ||
-                                (prevIs(prevSymbol, c, ">=")) ||
-                                (prevIs(prevSymbol, c, "<=")) ||
-                                (prevIs(prevSymbol, c, "!=")) ||
-                                (prevIs(prevSymbol, c, "**")) ||
-                                (prevIs(prevSymbol, c, "&&"))
-                                ) {
-                            // [[ take as a simble symbol
-                            prevSymbol = (char) 1; // any char will do
-                        } else if (prevSymbol != '\0') // two symbols in a row? break after the first
-                            break;
-                        else
-                            prevSymbol = c;
-
-                    } else {
-                        if ((prevSymbol != '\0') && (prevSymbol != 'A'))// a non-symbol following a symbols? break after the first
-                            break;
-                        prevSymbol = 'A'; // marks a non-symbol
-                    }
+            else if (cls == DELIMITER) // Only stop advancing identifier if a delimiter is found
+                break;
+
+            if (!inString) {
+                // Now let's see if it is a special symbol
+                if (cls == SYMBOL) {// include the symbol
+                    if (prevSymbol == 'A') // marks a non-symbol
+                        break;
+
+                    if (isSymbolPair(prevSymbol, c)) {
+                        // [[ take as a simble symbol
+                        prevSymbol = (char) 1; // any char will do
+                    } else if (prevSymbol != '\0') // two symbols in a row? break after the first
+                        break;
+                    else
+                        prevSymbol = c;
+
+                } else {
+                    if ((prevSymbol != '\0') && (prevSymbol != 'A'))// a non-symbol following a symbols? break after the first
+                        break;
+                    prevSymbol = 'A'; // marks a non-symbol
                 }
             }
             position++;
-
         }
-            /*
-            if ((startPos == position)) {
-                char c = str.charAt(position);
-                    if ((delimiters.indexOf(c) >= 0))
-                        position++;
-                }
-                */
         return position;
     }
 
     public boolean hasMoreTokens() {
-        newPosition = skipDelimiters(currentPosition);
-        return (newPosition < maxPosition);
+        if (newPosition < 0)
+            newPosition = skipDelimiters(currentPosition);
+        return (newPosition < bufEnd);
     }
 
     int start;
@@ -134,14 +236,68 @@ public class LLLTokenizer implements Enumeration<Object> {
                 newPosition : skipDelimiters(currentPosition);
 
         newPosition = -1;
-        if (currentPosition >= maxPosition)
+        if (currentPosition >= bufEnd)
             throw new NoSuchElementException();
         start = currentPosition;
         currentPosition = scanToken(currentPosition);
     }
 
+    public LineIndex getLineIndex() {
+        return lines;
+    }
+
+    // line and column of the last token found
+    public int getLine() {
+        return lines.getLine(start);
+    }
+
+    public int getColumn() {
+        return lines.getColumn(start);
+    }
+
+    // offsets of the last token found
+    public int getTokenStart() {
+        return start;
+    }
+
+    public int getTokenEnd() {
+        return currentPosition;
+    }
+
+    public TokenKind getTokenKind() {
+        char c = chars[start - bufStart];
+        int length = currentPosition - start;
+        switch (c) {
+            case '(': case '{': case '[':
+                return TokenKind.OPEN;
+            case ')': case '}': case ']':
+                return TokenKind.CLOSE;
+            case '"':
+                return TokenKind.STRING;
+            default:
+                if ((classOf(c) == SYMBOL) && ((length == 1) || (classOf(chars[start - bufStart + 1]) == SYMBOL)))
+                    return TokenKind.SYMBOL;
+                return TokenKind.WORD;
+        }
+    }
+
+    // true if the last token is the given text, without creating it
+    public boolean tokenIs(String s) {
+        int length = currentPosition - start;
+        if (s.length() != length)
+            return false;
+        for (int i = 0; i < length; i++)
+            if (chars[start - bufStart + i] != s.charAt(i))
+                return false;
+        return true;
+    }
+
     public String getTokenFound() {
-        return str.substring(start, currentPosition);
+        int from = start - bufStart;
+        char c = chars[from];
+        if ((c == '"') || ((c >= '0') && (c <= '9')))
+            return new String(chars, from, currentPosition - start);
+        return text(from, currentPosition - bufStart);
     }
 
     public String nextToken() {
@@ -149,6 +305,51 @@ public class LLLTokenizer implements Enumeration<Object> {
         return getTokenFound();
     }
 
+    // The text of chars[from..to), the same String for equal texts
+    String text(int from, int to) {
+        int h = 0;
+        for (int i = from; i < to; i++)
+            h = 31 * h + chars[i];
+        int mask = texts.length - 1;
+        int i = (h ^ (h >>> 16)) & mask;
+        while (texts[i] != null) {
+            String s = texts[i];
+            if ((s.hashCode() == h) && (sameText(s, from, to)))
+                return s;
+            i = (i + 1) & mask;
+        }
+        String s = new String(chars, from, to - from);
+        texts[i] = s;
+        textCount++;
+        if (textCount * 2 > texts.length)
+            growTexts();
+        return s;
+    }
+
+    boolean sameText(String s, int from, int to) {
+        if (s.length() != to - from)
+            return false;
+        for (int i = from; i < to; i++)
+            if (s.charAt(i - from) != chars[i])
+                return false;
+        return true;
+    }
+
+    void growTexts() {
+        String[] old = texts;
+        texts = new String[old.length * 2];
+        int mask = texts.length - 1;
+        for (String s : old) {
+            if (s == null)
+                continue;
+            int h = s.hashCode();
+            int i = (h ^ (h >>> 16)) & mask;
+            while (texts[i] != null)
+                i = (i + 1) & mask;
+            texts[i] = s;
+        }
+    }
+
     public boolean hasMoreElements() {
         return hasMoreTokens();
     }
@@ -158,5 +359,3 @@ public class LLLTokenizer implements Enumeration<Object> {
     }
 
 }
-
-
@@ -0,0 +1,259 @@
+package co.usc.lll;
+
+import co.usc.lll.asm.LineIndex;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A compact syntax tree: each node or literal is an entry in a few parallel
+// arrays instead of an LLLNode with its element list, SourceRef and literals.
+// Literals with the same text share a single LLLLiteral.
+//
+// The code generator does not traverse the arrays directly: getRoot() returns
+// an LLLNode view whose elements are views too. A view is created the first
+// time its entry is accessed and kept, so the generator can read the same
+// argument many times (e.g. when folding constants) without allocating.
+public class LLLTree {
+    static final byte NODE = 0;
+    static final byte LITERAL = 1;
+
+    byte[] kind = new byte[1024];
+    int[] firstChild = new int[1024]; // nodes only, -1 if none
+    int[] nextSibling = new int[1024]; // -1 for the last element
+    int[] start = new int[1024];
+    int[] length = new int[1024];
+    int[] value = new int[1024]; // literal id, or the id of the node opcode (-1 if none)
+    int size;
+    int root = -1;
+
+    LLLNode[] views; // by entry id, created on first access
+
+    List<LLLLiteral> literals = new ArrayList<>();
+    Map<String, Integer> literalIds = new HashMap<>();
+
+    // Entries come from more than one source when files are included: entries
+    // from sourceFirst[i] on, up to the next one, belong to sources.get(i).
+    List<String> sources = new ArrayList<>();
+    List<LineIndex> lineIndexes = new ArrayList<>();
+    int[] sourceFirst = new int[4];
+
+    public int size() {
+        return size;
+    }
+
+    public int getRootId() {
+        return root;
+    }
+
+    public LLLNode getRoot() {
+        return (root < 0) ? null : nodeAt(root);
+    }
+
+    public boolean isNode(int id) {
+        return kind[id] == NODE;
+    }
+
+    public LLLLiteral literalAt(int id) {
+        return literals.get(value[id]);
+    }
+
+    // the opcode of a node (e.g. "ADD" for "+"), or null
+    public LLLLiteral opcodeAt(int id) {
+        return (value[id] < 0) ? null : literals.get(value[id]);
+    }
+
+    public LLLNode nodeAt(int id) {
+        if (views == null)
+            views = new LLLNode[size];
+        else
+        if (views.length < size)
+            views = Arrays.copyOf(views, size);
+        LLLNode v = views[id];
+        if (v == null) {
+            v = new View(this, id);
+            views[id] = v;
+        }
+        return v;
+    }
+
+    public Object elementAt(int id) {
+        if (kind[id] == LITERAL)
+            return literalAt(id);
+        return nodeAt(id);
+    }
+
+    int literalId(String text) {
+        Integer id = literalIds.get(text);
+        if (id == null) {
+            id = literals.size();
+            literals.add(new LLLLiteral(text));
+            literalIds.put(text, id);
+        }
+        return id;
+    }
+
+    int add(byte k, int s, int v) {
+        if (size == kind.length)
+            grow();
+        kind[size] = k;
+        firstChild[size] = -1;
+        nextSibling[size] = -1;
+        start[size] = s;
+        length[size] = 0;
+        value[size] = v;
+        return size++;
+    }
+
+    void grow() {
+        int n = Math.max(kind.length * 2, 1024);
+        byte[] k = new byte[n];
+        System.arraycopy(kind, 0, k, 0, size);
+        kind = k;
+        firstChild = grow(firstChild, n);
+        nextSibling = grow(nextSibling, n);
+        start = grow(start, n);
+        length = grow(length, n);
+        value = grow(value, n);
+    }
+
+    static int[] grow(int[] a, int n) {
+        int[] r = new int[n];
+        System.arraycopy(a, 0, r, 0, Math.min(a.length, n));
+        return r;
+    }
+
+    // drops the unused capacity of the arrays
+    void trim() {
+        if (size == kind.length)
+            return;
+        byte[] k = new byte[size];
+        System.arraycopy(kind, 0, k, 0, size);
+        kind = k;
+        firstChild = grow(firstChild, size);
+        nextSibling = grow(nextSibling, size);
+        start = grow(start, size);
+        length = grow(length, size);
+        value = grow(value, size);
+    }
+
+    int addNode(int startChar) {
+        return add(NODE, startChar, -1);
+    }
+
+    int addLiteral(String text, int startChar) {
+        int id = add(LITERAL, startChar, literalId(text));
+        length[id] = text.length();
+        return id;
+    }
+
+    void setOpcode(int node, String opcode) {
+        value[node] = (opcode == null) ? -1 : literalId(opcode);
+    }
+
+    void setEnd(int node, int endChar) {
+        length[node] = endChar - start[node];
+    }
+
+    // element ids of a node (the opcode element first)
+    public int[] children(int node) {
+        int count = 0;
+        for (int c = firstChild[node]; c >= 0; c = nextSibling[c])
+            count++;
+        int[] r = new int[count];
+        int i = 0;
+        for (int c = firstChild[node]; c >= 0; c = nextSibling[c])
+            r[i++] = c;
+        return r;
+    }
+
+    void addSource(String source, LineIndex lines) {
+        if (sources.size() == sourceFirst.length)
+            sourceFirst = grow(sourceFirst, sourceFirst.length * 2);
+        sourceFirst[sources.size()] = size;
+        sources.add(source);
+        lineIndexes.add(lines);
+    }
+
+    int sourceOf(int id) {
+        int i = sources.size() - 1;
+        while ((i > 0) && (sourceFirst[i] > id))
+            i--;
+        return i;
+    }
+
+    // Copies the entries of another tree at the end of this one. Returns the
+    // id of its root, or -1 if it is empty.
+    int graft(LLLTree t) {
+        if (t.root < 0)
+            return -1;
+        int base = size;
+        int s = 0;
+        for (int i = 0; i < t.size; i++) {
+            while ((s < t.sources.size()) && (t.sourceFirst[s] == i)) {
+                addSource(t.sources.get(s), t.lineIndexes.get(s));
+                s++;
+            }
+            int v = t.value[i];
+            int id = add(t.kind[i], t.start[i], (v < 0) ? -1 : literalId(t.literals.get(v).text));
+            length[id] = t.length[i];
+            firstChild[id] = (t.firstChild[i] < 0) ? -1 : t.firstChild[i] + base;
+            nextSibling[id] = (t.nextSibling[i] < 0) ? -1 : t.nextSibling[i] + base;
+        }
+        return t.root + base;
+    }
+
+    // Replaces the element old of node by the entry with id element (which must
+    // not be in another node)
+    void replaceChild(int node, int old, int element) {
+        if ((views != null) && (node < views.length))
+            views[node] = null; // its elements changed
+        nextSibling[element] = nextSibling[old];
+        if (firstChild[node] == old) {
+            firstChild[node] = element;
+            return;
+        }
+        for (int c = firstChild[node]; c >= 0; c = nextSibling[c])
+            if (nextSibling[c] == old) {
+                nextSibling[c] = element;
+                return;
+            }
+    }
+
+    // An LLLNode backed by the tree. Its elements are the views of its
+    // children, the list itself cannot be changed.
+    static class View extends LLLNode {
+        View(LLLTree tree, int id) {
+            super(null, null, tree.start[id], null, null);
+            int s = tree.sourceOf(id);
+            ref.source = tree.sources.get(s);
+            ref.lines = tree.lineIndexes.get(s);
+            ref.length = tree.length[id];
+            LLLLiteral op = tree.opcodeAt(id);
+            if (op != null)
+                setOpcode(op.text, op.getKey());
+            elements = new Elements(tree, tree.children(id));
+        }
+    }
+
+    static class Elements extends AbstractList<Object> {
+        final LLLTree tree;
+        final int[] ids;
+
+        Elements(LLLTree tree, int[] ids) {
+            this.tree = tree;
+            this.ids = ids;
+        }
+
+        public Object get(int index) {
+            return tree.elementAt(ids[index]);
+        }
+
+        public int size() {
+            return ids.length;
+        }
+    }
+}
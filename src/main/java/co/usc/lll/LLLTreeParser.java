@@ -0,0 +1,98 @@
+package co.usc.lll;
+
+import java.io.Reader;
+import java.io.UncheckedIOException;
+
+// Parses into an LLLTree instead of a graph of LLLNodes. Only the nodes still
+// open are LLLNode objects (the parser needs their brackets and opcode); every
+// node and literal is added to the tree arrays as soon as it is found.
+public class LLLTreeParser extends LLLParser {
+
+    static class Frame extends LLLNode {
+        int id;
+        int lastChild = -1;
+
+        Frame(String aopcode, String aopening, int start) {
+            super(aopcode, aopening, start, null, null);
+        }
+    }
+
+    LLLTree tree;
+
+    public LLLTree parseTree(String data) throws LLLCompilationError {
+        return parseTree(new LLLTokenizer(data));
+    }
+
+    // The source is read as it is parsed, it is never in memory as a whole
+    public LLLTree parseTree(Reader reader) throws LLLCompilationError {
+        try {
+            return parseTree(new LLLTokenizer(reader));
+        } catch (UncheckedIOException e) {
+            throw new LLLCompilationError("Cannot read source: " + e.getCause().getMessage());
+        }
+    }
+
+    public LLLTree parseTree(LLLTokenizer tokenizer) throws LLLCompilationError {
+        tree = new LLLTree();
+        try {
+            tree.addSource(tokenizer.getSource(), tokenizer.getLineIndex());
+            Frame root = (Frame) parse(tokenizer);
+            if (root != null)
+                tree.root = root.id;
+            tree.trim();
+            return tree;
+        } finally {
+            tree = null;
+        }
+    }
+
+    void link(int element) {
+        Frame frame = (Frame) node;
+        if (frame.lastChild < 0)
+            tree.firstChild[frame.id] = element;
+        else
+            tree.nextSibling[frame.lastChild] = element;
+        frame.lastChild = element;
+    }
+
+    @Override
+    void open(String opcode) {
+        if (node != null)
+            stack.push(node);
+        Frame frame = new Frame(opcode, token, st.start);
+        frame.id = tree.addNode(st.start);
+        node = frame;
+        if (opcode != null) {
+            tree.setOpcode(frame.id, opcode);
+            link(tree.addLiteral(opcode, st.start));
+        }
+    }
+
+    @Override
+    protected void closeExp() throws LLLCompilationError {
+        tree.setEnd(((Frame) node).id, st.start);
+        super.closeExp();
+    }
+
+    @Override
+    protected void addElement(Object arg) {
+        if (arg instanceof Frame)
+            link(((Frame) arg).id);
+        else
+            link(tree.addLiteral((String) arg, st.start));
+    }
+
+    @Override
+    protected void addArgumentOrOpcode() throws LLLCompilationError {
+        if (node == null)
+            error("Unexpected word");
+        if (!node.opcodeSet()) {
+            String opcode = getStdOpcode(token);
+            node.setOpcode(opcode);
+            tree.setOpcode(((Frame) node).id, opcode);
+            // first element is both stored as opcode and as arg list.
+            link(tree.addLiteral(token, st.start));
+        } else
+            pushArgument(token);
+    }
+}
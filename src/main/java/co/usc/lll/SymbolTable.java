@@ -0,0 +1,86 @@
+package co.usc.lll;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A stack of scoped symbols (local variables and macro arguments). Entries are
+// pushed when a scope is entered and popped when it is left, like the old
+// Stack<Replacement>, and positions in the stack keep the same meaning. Besides
+// the stack, each name keeps the positions where it is defined, so a lookup
+// does not have to walk the whole stack. Names must already be upper case
+// (see LLLLiteral.getKey()).
+class SymbolTable<T> {
+    List<T> entries = new ArrayList<>();
+    List<String> names = new ArrayList<>();
+    Map<String, Positions> byName = new HashMap<>();
+
+    // positions of one name in the stack, in increasing order
+    static class Positions {
+        int[] data = new int[2];
+        int size;
+
+        void push(int pos) {
+            if (size == data.length) {
+                int[] n = new int[size * 2];
+                System.arraycopy(data, 0, n, 0, size);
+                data = n;
+            }
+            data[size++] = pos;
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    public T get(int index) {
+        return entries.get(index);
+    }
+
+    public void push(String name, T value) {
+        Positions p = byName.get(name);
+        if (p == null) {
+            p = new Positions();
+            byName.put(name, p);
+        }
+        p.push(entries.size());
+        entries.add(value);
+        names.add(name);
+    }
+
+    public T pop() {
+        int last = entries.size() - 1;
+        String name = names.remove(last);
+        Positions p = byName.get(name);
+        p.size--;
+        if (p.size == 0)
+            byName.remove(name);
+        return entries.remove(last);
+    }
+
+    // leaves a scope: removes the entries pushed since the stack had this size
+    public void popTo(int size) {
+        while (entries.size() > size)
+            pop();
+    }
+
+    // Position of the innermost definition of name below limit, or -1.
+    // limit is the size of the stack when a macro argument was bound, so that the
+    // argument is evaluated in the scope of the macro caller.
+    public int find(String name, int limit) {
+        Positions p = byName.get(name);
+        if (p == null)
+            return -1;
+        // almost always the last one, unless a name is shadowed in a macro argument
+        for (int i = p.size - 1; i >= 0; i--)
+            if (p.data[i] < limit)
+                return p.data[i];
+        return -1;
+    }
+}
@@ -0,0 +1,129 @@
+package co.usc.lll.asm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Lowers instructions into the code of a block. Opcodes and PUSH arguments are
+// written as they are, label references are written as PUSH placeholders and
+// recorded as tags, label definitions become label positions and source refs
+// get the position of their instruction. The list becomes the code of the
+// block. Labels are not resolved here, that is
+// done when the block is fixed up (EVMAssemblerHelper.performFixUp), which
+// first sizes the placeholders with relax().
+public class Assembler {
+
+    // Encoded size of the instructions, in bytes
+    public static int size(List<Instruction> list) {
+        int size = 0;
+        for (Instruction ins : list)
+            size += ins.size();
+        return size;
+    }
+
+    static int bytesFor(int value) {
+        if (value < 0x100) return 1;
+        if (value < 0x10000) return 2;
+        if (value < 0x1000000) return 3;
+        return 4;
+    }
+
+    // Branch relaxation. Every label reference starts as a PUSH1, and only the
+    // ones whose target does not fit are grown. Growing a reference moves the
+    // code after it, so label positions are computed again until no reference
+    // needs to grow (widths only grow, so this ends). Returns the address width
+    // of each label reference, in list order. All the labels referenced must be
+    // defined in list.
+    public static int[] relax(List<Instruction> list, int labelCount) {
+        int refs = 0;
+        for (Instruction ins : list)
+            if (ins.isPushLabel())
+                refs++;
+        int[] widths = new int[refs];
+        Arrays.fill(widths,1);
+        int[] labelPos = new int[labelCount];
+        boolean grown = true;
+        while (grown) {
+            int p = 0;
+            int r = 0;
+            for (Instruction ins : list)
+                if (ins.isLabel())
+                    labelPos[ins.label] = p;
+                else
+                if (ins.isPushLabel())
+                    p += 1+widths[r++];
+                else
+                    p += ins.size();
+            grown = false;
+            r = 0;
+            for (Instruction ins : list)
+                if (ins.isPushLabel()) {
+                    int width = bytesFor(labelPos[ins.label]);
+                    if (width>widths[r]) {
+                        widths[r] = width;
+                        grown = true;
+                    }
+                    r++;
+                }
+        }
+        return widths;
+    }
+
+    public static void encode(List<Instruction> list, CodeBlock block) {
+        encode(list,block,null);
+    }
+
+    // widths are the address widths of the label references, as relax()
+    // returns them; if null, label references are written as PUSH4.
+    public static void encode(List<Instruction> list, CodeBlock block, int[] widths) {
+        int size = size(list);
+        if (widths!=null)
+            for (int w : widths)
+                size -= 4-w;
+        byte[] code = new byte[size];
+        List<CodeTag> tags = new ArrayList<>();
+        List<CodeTag> labelPos = new ArrayList<>();
+        List<SourceRef> refs = new ArrayList<>();
+        int p = 0;
+        int ref = 0;
+        for (Instruction ins : list) {
+            if (ins.refs!=null)
+                for (SourceRef r : ins.refs) {
+                    r.position = p;
+                    refs.add(r);
+                }
+            if (ins.isLabel()) {
+                labelPos.add(new CodeTag(p,ins.label));
+                continue;
+            }
+            if (ins.op==null) {
+                if (ins.data!=null)
+                    code[p++] = ins.data[0];
+                continue;
+            }
+            if ((ins.isPushLabel()) && (widths!=null)) {
+                int width = widths[ref++];
+                code[p++] = (byte) (OpCode.PUSH1.val()+width-1);
+                CodeTag tag = new CodeTag(p,ins.label);
+                tag.size = width;
+                tags.add(tag);
+                p += width;
+                continue;
+            }
+            code[p++] = ins.op.val();
+            if (ins.isPushLabel())
+                tags.add(new CodeTag(p,ins.label));
+            if (ins.data!=null) {
+                System.arraycopy(ins.data,0,code,p,ins.data.length);
+                p += ins.data.length;
+            }
+        }
+        if (block.instructions!=list)
+            block.setInstructions(list);
+        block.length = code.length;
+        block.code = code;
+        block.tags = tags;
+        block.labels = labelPos;
+        block.refs = refs;
+    }
+}
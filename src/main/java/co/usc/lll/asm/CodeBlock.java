@@ -1,33 +1,64 @@
 package co.usc.lll.asm;
 
-import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
 import static co.usc.lll.asm.OpCode.PUSH1;
+import static co.usc.lll.asm.OpCode.PUSH4;
 
 public class CodeBlock {
-    byte[] code ; // = new byte[0];
+    // The code generator writes instructions, not bytes. They are kept as a
+    // chain of segments, and only flattened into a single list and encoded
+    // (code, tags, label positions and refs, with absolute positions) by the
+    // Assembler when the code is requested.
+    CodeSegment first;
+    CodeSegment last;
+    int length; // encoded size of the segments
+
+    // the segment being written, its encoded size, and the refs that will
+    // start at the next instruction
+    List<Instruction> pending;
+    int pendingSize;
+    List<SourceRef> pendingRefs;
+    boolean writing;
+    boolean ownsLast; // the last segment was written by this block
+
+    List<Instruction> instructions; // flattened instructions, null until layout
+    byte[] code ; // encoded code, null until layout
     List<CodeTag> tags = new ArrayList<>();
+    List<CodeTag> labels = new ArrayList<>(); // label positions
     List<SourceRef> refs = new ArrayList<>();
     Set<Integer> calledFuncs = new HashSet<>();
     public boolean reverts = false;
+    // the value the code pushes, when it is known at compile time. Writing to
+    // the block clears it.
+    BigInteger constant;
 
 
     public CodeBlock(SourceRef topRef) {
         if ((topRef!=null) && (topRef.length>0))  {
             topRef = topRef.cloneSourceRef();
             topRef.position =0;
-            refs.add(topRef);
+            addPendingRef(topRef);
         }
 
     }
 
-    public void addTag(int position,int id) {
-        CodeTag c = new CodeTag(position,id);
-        tags.add(c);
+    // Labels are owned by the block they are defined in. The definition is an
+    // instruction, so it moves with its segment when the block is appended.
+    void addLabel(int id) {
+        pendingList().add(Instruction.labelDef(id));
+        modified();
+    }
+
+    void addPendingRef(SourceRef ref) {
+        if (pendingRefs==null)
+            pendingRefs = new ArrayList<>();
+        pendingRefs.add(ref);
+        modified();
     }
 
     public String getSourceRefText(int pos, int[] fromIndexVec) {
@@ -40,6 +71,8 @@ public class CodeBlock {
              if (ref.position==pos) {
                  if (fromIndexVec != null)
                      fromIndexVec[0] = i + 1;
+                 if (ref.source == null) // parsed from a file, the text was not kept
+                     return null;
                  return ref.source.substring(ref.startChar, ref.startChar + ref.length);
              }
 
@@ -71,116 +104,210 @@ public class CodeBlock {
         return -1;
     }
 
-    public void addSourceRef(int position,int startChar,int length,String source) {
-        SourceRef c = new SourceRef(position,startChar,length,source);
-        refs.add(c);
+    // The ref starts at the next instruction written
+    public void addSourceRef(int startChar,int length,String source) {
+        SourceRef c = new SourceRef(0,startChar,length,source);
+        addPendingRef(c);
     }
 
     public byte[] getCode() {
-        if (code==null)
-            code = new byte[0]; // better for the users
+        layout();
         return code;
     }
 
-    byte[] combine(byte[] one, byte[] two) {
-
-        byte[] combined = new byte[one.length + two.length];
+    // The instructions of the block, with label references still symbolic.
+    // After the block is fixed up they are the optimized ones. A block read
+    // from the compile cache has only its code, and returns null.
+    public List<Instruction> getInstructions() {
+        if ((instructions!=null) || (code!=null))
+            return instructions;
+        closeSegment();
+        setInstructions(flatten());
+        return instructions;
+    }
 
-        System.arraycopy(one, 0, combined, 0, one.length);
-        System.arraycopy(two, 0, combined, one.length, two.length);
-        return combined;
+    // Replaces the segment chain by a single segment with list. Passes that
+    // change the instructions work on this list, so the block keeps them.
+    void setInstructions(List<Instruction> list) {
+        first = last = new CodeSegment(list);
+        ownsLast = true;
+        instructions = list;
     }
 
-    ByteArrayOutputStream bOut;
+    // Encodes the instructions. This is done once, the result is kept until
+    // the block is modified again.
+    void layout() {
+        if (code!=null)
+            return;
+        Assembler.encode(getInstructions(),this);
+    }
 
-    public int writeOffset() {
-        int ofs =0;
+    // The segment chain as a single list of instructions. The refs of markers
+    // are moved to the next instruction, so that markers do not split
+    // sequences the optimizer looks for. There is a single marker, at the end.
+    // The instructions are not copied, the segments are not used afterwards.
+    List<Instruction> flatten() {
+        List<Instruction> list = new ArrayList<>();
+        List<SourceRef> waiting = null;
+        for (CodeSegment s = first; s != null; s = s.next)
+            for (Instruction ins : s.instructions) {
+                if (ins.isMarker()) {
+                    if (ins.refs!=null) {
+                        if (waiting==null)
+                            waiting = new ArrayList<>();
+                        waiting.addAll(ins.refs);
+                    }
+                    continue;
+                }
+                if ((waiting!=null) && (!ins.isLabel())) {
+                    if (ins.refs!=null)
+                        waiting.addAll(ins.refs);
+                    ins.refs = waiting;
+                    waiting = null;
+                }
+                list.add(ins);
+            }
+        Instruction end = Instruction.endMarker();
+        end.refs = waiting;
+        list.add(end);
+        return list;
+    }
 
-        if (code!=null)
-            ofs = code.length;
+    void modified() {
+        instructions = null;
+        code = null;
+        constant = null;
+    }
 
-        if (bOut!=null)
-            ofs +=bOut.size();
-        return ofs;
+    public BigInteger getConstant() {
+        return constant;
     }
 
+    public void setConstant(BigInteger value) {
+        constant = value;
+    }
 
-    public void writePushLabelRef() {
-        int pushOpcode = 4 + PUSH1.val() - 1; // four bytes ref
-        bOut.write(pushOpcode);
-        writeLabelRef();
+    // Instructions are added to the last segment if it was written by this
+    // block, so a block has about one segment per block appended to it.
+    List<Instruction> pendingList() {
+        if (pending==null)
+            pending = ownsLast ? last.instructions : new ArrayList<Instruction>(4);
+        return pending;
     }
 
-    public void writePushByte(int b) {
-        int pushOpcode = PUSH1.val() ;
-        bOut.write(pushOpcode);
-        bOut.write(b);
+    // Ends the segment being written. The refs not taken by an instruction are
+    // kept in a marker.
+    void closeSegment() {
+        if (pendingRefs!=null)
+            pendingList().add(takePendingRefs());
+        closeInstructions();
     }
-    public void writePushInt(int i) {
-        int pushOpcode = PUSH1.val()+3;
-        bOut.write(pushOpcode);
-        bOut.write( (i>>24) & 0xff);
-        bOut.write( (i>>16) & 0xff);
-        bOut.write( (i>>8) & 0xff);
-        bOut.write( i & 0xff );
 
+    // A marker with the pending refs
+    Instruction takePendingRefs() {
+        Instruction marker = Instruction.endMarker();
+        marker.refs = pendingRefs;
+        pendingRefs = null;
+        return marker;
     }
 
-    public void writeLabelRef() {
-        bOut.write(0);
-        bOut.write(0);
-        bOut.write(0);
-        bOut.write(0);
+    // Links a segment with the pending instructions, unless they were added
+    // to the last one
+    void closeInstructions() {
+        if (pending==null)
+            return;
+        if (!ownsLast) {
+            CodeSegment s = new CodeSegment(pending);
+            linkSegments(s,s);
+            ownsLast = true;
+        }
+        pending = null;
+        length += pendingSize;
+        pendingSize = 0;
     }
 
-    public void startWrite() {
-        bOut = new ByteArrayOutputStream();
+    void linkSegments(CodeSegment from, CodeSegment to) {
+        if (first==null)
+            first = from;
+        else
+            last.next = from;
+        last = to;
+        ownsLast = false;
+        modified();
+    }
 
+    public int writeOffset() {
+        return length+pendingSize;
     }
 
-    public ByteArrayOutputStream writer() {
-        if (bOut==null)
+    public void write(Instruction ins) {
+        if (!writing)
            throw new RuntimeException("call startWrite before writting");
-        return bOut;
+        if (pendingRefs!=null) {
+            ins.addRefs(pendingRefs);
+            pendingRefs = null;
+        }
+        pendingList().add(ins);
+        pendingSize += ins.size();
+        modified();
+    }
+
+    public void write(OpCode op) {
+        write(new Instruction(op));
+    }
+
+    // PUSH1..PUSH32, by the length of value
+    public void writePush(byte[] value) {
+        if (value.length==1)
+            value = BYTES[value[0] & 0xff];
+        write(new Instruction(OpCode.code((byte) (PUSH1.val()+value.length-1)),value));
+    }
+
+    // PUSH1 arguments, shared by all the instructions
+    static final byte[][] BYTES = new byte[256][];
+    static {
+        for (int i=0;i<256;i++)
+            BYTES[i] = new byte[]{(byte) i};
+    }
+
+    public void writePushByte(int b) {
+        write(new Instruction(PUSH1,BYTES[b & 0xff]));
+    }
+
+    public void writePushInt(int i) {
+        write(new Instruction(PUSH4,new byte[]{(byte) (i>>24),(byte) (i>>16),(byte) (i>>8),(byte) i}));
+    }
+
+    // PUSH of the address of a label, which may be defined in another block
+    public void writePushTag(int id) {
+        write(Instruction.pushLabel(id));
+    }
+
+    public void startWrite() {
+        writing = true;
     }
 
     public void endWrite() {
-        if (code==null)
-            code = bOut.toByteArray();
-        else
-            code = combine(code,bOut.toByteArray());
-        bOut = null;
+        writing = false;
+        closeSegment();
     }
 
+    // Moves the code of c at the end of this block. c segments are linked, not
+    // copied, so c must not be used to write code afterwards. Label references,
+    // label definitions and refs are instructions of the segments, so nothing
+    // is shifted here: positions are only computed by layout().
     public void append(EVMAssemblerHelper helper,CodeBlock c) {
-        if (code==null) {
-            if (c==null)
-                return; // ?
-            code = c.code;
-            tags.addAll(c.tags); //
-            helper.moveLabels(c,this,0);
-            refs.addAll(c.refs);
-            calledFuncs.addAll(c.calledFuncs);
-            reverts = c.reverts;
+        if (c==null)
             return;
-        }
 
-        int prevCodeLen = code.length;
-        byte[] newCode = combine(code,c.code);
-        int len =tags.size();
-        tags.addAll(c.tags);
-        for(int i=len;i<tags.size();i++) {
-            tags.get(i).position += prevCodeLen;
-        }
-        code = newCode;
-        helper.moveLabels(c,this,prevCodeLen);
-        // Now we move all labels from c to this block
-
-        // Now move the refs
-        int refLen =refs.size();
-        refs.addAll(c.refs);
-        for(int i=refLen;i<refs.size();i++) {
-            refs.get(i).position += prevCodeLen;
+        closeInstructions();
+        c.closeSegment();
+        if (c.first!=null) {
+            // the pending refs start at the first instruction of c
+            if (pendingRefs!=null)
+                c.first.instructions.add(0,takePendingRefs());
+            linkSegments(c.first, c.last);
+            length += c.length;
         }
         calledFuncs.addAll(c.calledFuncs);
         reverts = c.reverts;
@@ -193,9 +320,4 @@ public class CodeBlock {
     public void addCalledFunc(int id) {
         calledFuncs.add(new Integer(id));
     }
-
-    public void writePushTag(int id) {
-        addTag(writeOffset()+1,id);
-        writePushLabelRef();
-    }
 }
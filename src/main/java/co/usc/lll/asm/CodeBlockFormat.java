@@ -0,0 +1,128 @@
+package co.usc.lll.asm;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// A compact binary form of a fixed up code block: the code, the label
+// references (tags), the labels with their names and positions, and the source
+// refs. Numbers are written as unsigned varints (7 bits per byte), so most of
+// them take one or two bytes.
+//
+// The text of the source refs is not written. When the block is read, the refs
+// that were in the main source get the source given, the ones that were in
+// included files get none, as when they were compiled.
+public class CodeBlockFormat {
+
+    public static void write(DataOutputStream out, CodeBlock block, EVMAssemblerHelper helper, String mainSource) throws IOException {
+        block.layout();
+        writeVar(out, block.code.length);
+        out.write(block.code);
+        out.writeInt(helper.relaxationSavings);
+        out.writeInt(helper.peepholeSavings);
+        out.writeInt(helper.deadCodeSavings);
+
+        writeVar(out, helper.labels.size());
+        for (Label label : helper.labels) {
+            out.writeBoolean(label.name != null);
+            if (label.name != null)
+                out.writeUTF(label.name);
+            // 0 for labels not in this block (e.g. of functions not called)
+            writeVar(out, (label.block == block) ? label.offset + 1 : 0);
+        }
+        writeTags(out, block.labels);
+        writeTags(out, block.tags);
+        for (CodeTag t : block.tags)
+            out.writeByte(t.size);
+
+        writeVar(out, block.refs.size());
+        for (SourceRef r : block.refs) {
+            writeVar(out, r.position);
+            writeVar(out, r.startChar);
+            writeVar(out, r.length);
+            out.writeBoolean((r.source != null) && (r.source == mainSource));
+        }
+        out.writeBoolean(block.reverts);
+    }
+
+    // Reads a block written by write(). Its labels are added to helper, which
+    // must be new.
+    public static CodeBlock read(DataInputStream in, EVMAssemblerHelper helper, String mainSource, LineIndex mainLines) throws IOException {
+        CodeBlock block = new CodeBlock(null);
+        byte[] code = new byte[readVar(in)];
+        in.readFully(code);
+        helper.relaxationSavings = in.readInt();
+        helper.peepholeSavings = in.readInt();
+        helper.deadCodeSavings = in.readInt();
+
+        int labelCount = readVar(in);
+        for (int i = 0; i < labelCount; i++) {
+            String name = in.readBoolean() ? in.readUTF() : null;
+            int id = helper.getNewLabel(name);
+            Label label = helper.labels.get(id);
+            label.offset = readVar(in) - 1;
+            if (label.offset >= 0)
+                label.block = block;
+        }
+        block.labels = readTags(in);
+        block.tags = readTags(in);
+        for (CodeTag t : block.tags)
+            t.size = in.readByte();
+
+        int refCount = readVar(in);
+        List<SourceRef> refs = new ArrayList<>(refCount);
+        for (int i = 0; i < refCount; i++) {
+            SourceRef r = new SourceRef(readVar(in), readVar(in), readVar(in), null);
+            if (in.readBoolean()) {
+                r.source = mainSource;
+                r.lines = mainLines;
+            }
+            refs.add(r);
+        }
+        block.refs = refs;
+        block.reverts = in.readBoolean();
+        // the block is already laid out and encoded. It has no instructions,
+        // so it can not be appended to another block.
+        block.code = code;
+        return block;
+    }
+
+    static void writeTags(DataOutputStream out, List<CodeTag> tags) throws IOException {
+        writeVar(out, tags.size());
+        for (CodeTag t : tags) {
+            writeVar(out, t.position);
+            writeVar(out, t.id);
+        }
+    }
+
+    static List<CodeTag> readTags(DataInputStream in) throws IOException {
+        int count = readVar(in);
+        List<CodeTag> tags = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            tags.add(new CodeTag(readVar(in), readVar(in)));
+        return tags;
+    }
+
+    public static void writeVar(DataOutputStream out, int v) throws IOException {
+        if (v < 0)
+            throw new IOException("Negative value: " + v);
+        while (v >= 0x80) {
+            out.writeByte((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte(v);
+    }
+
+    public static int readVar(DataInputStream in) throws IOException {
+        int v = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            v |= (b & 0x7f) << shift;
+            if (b < 0x80)
+                return v;
+        }
+        throw new IOException("Invalid varint");
+    }
+}
@@ -0,0 +1,16 @@
+package co.usc.lll.asm;
+
+import java.util.List;
+
+// The instructions written by a single startWrite()/endWrite() pair. Blocks
+// are chains of segments, so appending a block only links its chain at the end
+// of the other one. Label definitions, label references and source refs are
+// instructions too, their positions are only computed when the block is laid out.
+class CodeSegment {
+    List<Instruction> instructions;
+    CodeSegment next;
+
+    CodeSegment(List<Instruction> instructions) {
+        this.instructions = instructions;
+    }
+}
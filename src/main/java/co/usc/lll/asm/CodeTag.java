@@ -3,6 +3,7 @@ package co.usc.lll.asm;
 public class CodeTag {
     public int position;
     public int id;
+    public int size = 4; // bytes reserved for the label address
 
     public CodeTag(int position, int id) {
         this.position = position;
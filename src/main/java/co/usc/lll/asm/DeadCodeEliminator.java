@@ -0,0 +1,130 @@
+package co.usc.lll.asm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Removes the code that can not be executed: what follows a STOP, RETURN,
+// SUICIDE or JUMP (REVERT is a JUMP to an invalid address) up to the next
+// label, and the labelled code no live code jumps to.
+//
+// The code is split into basic blocks, which start at the first instruction,
+// at a label and after an instruction that does not continue. The first block
+// is live, and so are the block that follows a live block that continues, and
+// the blocks of the labels a live block pushes. Jumps take their targets from
+// the stack, so any label pushed is taken as a target: this covers the return
+// addresses of function calls. A JUMPDEST without a label (written by ASM) may
+// be reached by an address the code computes, so its block is always live.
+public class DeadCodeEliminator {
+
+    // Instructions and code bytes removed in the last run
+    int removed;
+    int removedBytes;
+
+    public int getRemoved() {
+        return removed;
+    }
+
+    public int getRemovedBytes() {
+        return removedBytes;
+    }
+
+    static boolean continues(Instruction ins) {
+        return (ins.op!=OpCode.STOP) && (ins.op!=OpCode.RETURN) && (ins.op!=OpCode.SUICIDE) &&
+                (ins.op!=OpCode.JUMP);
+    }
+
+    // Removes the dead blocks of code, and returns true if there were any. The
+    // definitions of the labels removed are added to deadLabels, if not null.
+    // Source refs of removed instructions move to the next instruction kept,
+    // the end marker is always kept.
+    public boolean eliminate(List<Instruction> code, int labelCount, List<Integer> deadLabels) {
+        removed = 0;
+        removedBytes = 0;
+        int n = code.size();
+
+        // blockOf[i]: basic block of instruction i
+        int[] blockOf = new int[n];
+        int[] labelBlock = new int[labelCount];
+        int[] starts = new int[n+1];
+        int blocks = 1;
+        boolean split = false;
+        for (int i=0;i<n;i++) {
+            Instruction ins = code.get(i);
+            boolean labelRun = (i>0) && (code.get(i-1).isLabel());
+            if ((i>0) && ((split) || ((ins.isLabel()) && (!labelRun))))
+                starts[blocks++] = i;
+            blockOf[i] = blocks-1;
+            if (ins.isLabel())
+                labelBlock[ins.label] = blockOf[i];
+            split = (ins.op!=null) && (!continues(ins));
+        }
+
+        starts[blocks] = n;
+        boolean[] live = new boolean[blocks];
+        int[] work = new int[blocks];
+        int top = 0;
+        live[0] = true;
+        work[top++] = 0;
+        for (int b=1;b<blocks;b++)
+            if ((!live[b]) && (startsWithJumpDest(code,starts[b]))) {
+                live[b] = true;
+                work[top++] = b;
+            }
+
+        while (top>0) {
+            int b = work[--top];
+            Instruction lastIns = null;
+            for (int i=starts[b];i<starts[b+1];i++) {
+                Instruction ins = code.get(i);
+                if (ins.isPushLabel()) {
+                    int t = labelBlock[ins.label];
+                    if (!live[t]) {
+                        live[t] = true;
+                        work[top++] = t;
+                    }
+                }
+                if (ins.op!=null)
+                    lastIns = ins;
+            }
+            if ((b+1<blocks) && (!live[b+1]) && ((lastIns==null) || (continues(lastIns)))) {
+                live[b+1] = true;
+                work[top++] = b+1;
+            }
+        }
+
+        // live instructions are moved down to kept
+        int kept = 0;
+        List<SourceRef> refs = null;
+        for (int i=0;i<n;i++) {
+            Instruction ins = code.get(i);
+            if ((!live[blockOf[i]]) && (i<n-1)) {
+                if (ins.refs!=null) {
+                    if (refs==null)
+                        refs = new ArrayList<>();
+                    refs.addAll(ins.refs);
+                }
+                if ((ins.isLabel()) && (deadLabels!=null))
+                    deadLabels.add(ins.label);
+                removed++;
+                removedBytes += ins.size();
+                continue;
+            }
+            if ((refs!=null) && (!ins.isLabel())) {
+                if (ins.refs!=null)
+                    refs.addAll(ins.refs);
+                ins.refs = refs;
+                refs = null;
+            }
+            code.set(kept++,ins);
+        }
+        if (removed==0)
+            return false;
+        code.subList(kept,n).clear();
+        return true;
+    }
+
+    // A block that begins with a JUMPDEST has no label
+    static boolean startsWithJumpDest(List<Instruction> code, int start) {
+        return code.get(start).is(OpCode.JUMPDEST);
+    }
+}
@@ -0,0 +1,108 @@
+package co.usc.lll.asm;
+
+import java.math.BigInteger;
+
+// Evaluation of the pure EVM opcodes on 256-bit words, with the same wraparound,
+// sign and division by zero rules as the virtual machine. Values are always
+// kept as unsigned numbers in [0, 2^256).
+public class EVMArithmetic {
+    public static final BigInteger WORD = BigInteger.ONE.shiftLeft(256);
+    public static final BigInteger MAX_WORD = WORD.subtract(BigInteger.ONE);
+    static final BigInteger SIGN_BIT = BigInteger.ONE.shiftLeft(255);
+
+    // Opcodes that only depend on their stack arguments
+    public static boolean isPure(OpCode op) {
+        switch (op) {
+            case ADD: case MUL: case SUB: case DIV: case SDIV: case MOD: case SMOD:
+            case ADDMOD: case MULMOD: case EXP: case SIGNEXTEND:
+            case LT: case GT: case SLT: case SGT: case EQ: case ISZERO:
+            case AND: case OR: case XOR: case NOT: case BYTE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public static boolean isWord(BigInteger v) {
+        return (v.signum()>=0) && (v.bitLength()<=256);
+    }
+
+    static BigInteger signed(BigInteger v) {
+        if (v.testBit(255))
+            return v.subtract(WORD);
+        return v;
+    }
+
+    static BigInteger word(BigInteger v) {
+        return v.mod(WORD);
+    }
+
+    static BigInteger bool(boolean b) {
+        return b ? BigInteger.ONE : BigInteger.ZERO;
+    }
+
+    // args[0] is the top of the stack. Returns null if op is not pure.
+    public static BigInteger eval(OpCode op, BigInteger... args) {
+        BigInteger a = args[0];
+        BigInteger b = (args.length>1) ? args[1] : null;
+        switch (op) {
+            case ADD: return word(a.add(b));
+            case MUL: return word(a.multiply(b));
+            case SUB: return word(a.subtract(b));
+            case DIV:
+                if (b.signum()==0) return BigInteger.ZERO;
+                return a.divide(b);
+            case SDIV:
+                if (b.signum()==0) return BigInteger.ZERO;
+                return word(signed(a).divide(signed(b))); // truncates towards zero, like the EVM
+            case MOD:
+                if (b.signum()==0) return BigInteger.ZERO;
+                return a.mod(b);
+            case SMOD:
+                if (b.signum()==0) return BigInteger.ZERO;
+                return word(signed(a).remainder(signed(b))); // sign of the dividend
+            case ADDMOD:
+                if (args[2].signum()==0) return BigInteger.ZERO;
+                return a.add(b).mod(args[2]);
+            case MULMOD:
+                if (args[2].signum()==0) return BigInteger.ZERO;
+                return a.multiply(b).mod(args[2]);
+            case EXP: return a.modPow(b, WORD);
+            case SIGNEXTEND:
+                if (a.compareTo(BigInteger.valueOf(31))>=0)
+                    return b;
+                int bit = a.intValue()*8+7;
+                BigInteger mask = BigInteger.ONE.shiftLeft(bit+1).subtract(BigInteger.ONE);
+                if (b.testBit(bit))
+                    return b.or(MAX_WORD.xor(mask));
+                return b.and(mask);
+            case LT: return bool(a.compareTo(b)<0);
+            case GT: return bool(a.compareTo(b)>0);
+            case SLT: return bool(signed(a).compareTo(signed(b))<0);
+            case SGT: return bool(signed(a).compareTo(signed(b))>0);
+            case EQ: return bool(a.equals(b));
+            case ISZERO: return bool(a.signum()==0);
+            case AND: return a.and(b);
+            case OR: return a.or(b);
+            case XOR: return a.xor(b);
+            case NOT: return MAX_WORD.xor(a);
+            case BYTE:
+                if (a.compareTo(BigInteger.valueOf(32))>=0)
+                    return BigInteger.ZERO;
+                return b.shiftRight(8*(31-a.intValue())).and(BigInteger.valueOf(0xff));
+            default:
+                return null;
+        }
+    }
+
+    // Shortest big-endian bytes of an unsigned word, to be used as a PUSH argument
+    public static byte[] toPushBytes(BigInteger v) {
+        byte[] b = v.toByteArray();
+        if ((b.length>1) && (b[0]==0)) {
+            byte[] r = new byte[b.length-1];
+            System.arraycopy(b,1,r,0,r.length);
+            return r;
+        }
+        return b;
+    }
+}
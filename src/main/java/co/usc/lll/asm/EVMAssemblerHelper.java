@@ -1,91 +1,270 @@
 package co.usc.lll.asm;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class EVMAssemblerHelper {
 
     int tagIdCount;
     List<Label> labels = new ArrayList<>();
 
+    // upper-cased label name -> id of the first label with that name
+    Map<String,Integer> labelsByName = new HashMap<>();
+
+    // Shrink label references to the smallest PUSH that holds the address
+    boolean relaxBranches = true;
+    // Bytes removed by branch relaxation in this compilation
+    int relaxationSavings;
+
+    // Peephole optimizer run before fix up, null to disable
+    PeepholeOptimizer optimizer = new PeepholeOptimizer();
+    // Bytes removed by the peephole optimizer in this compilation
+    int peepholeSavings;
+
+    // Retargets jumps before fix up, null to disable
+    JumpThreader threader = new JumpThreader();
+
+    // Removes unreachable code before fix up, null to disable
+    DeadCodeEliminator deadCode = new DeadCodeEliminator();
+    // Bytes of unreachable code removed in this compilation
+    int deadCodeSavings;
+
+    // Position index, built on demand: label positions sorted by position (and id),
+    // encoded as (position << 32) | id. Cleared whenever a label moves.
+    long[] labelsByPos;
+
     public EVMAssemblerHelper() {
 
     }
 
+    public void setRelaxBranches(boolean relax) {
+        relaxBranches = relax;
+    }
+
+    public boolean getRelaxBranches() {
+        return relaxBranches;
+    }
+
+    // Number of code bytes saved by using PUSH1..PUSH3 instead of PUSH4 for label references
+    public int getRelaxationSavings() {
+        return relaxationSavings;
+    }
+
+    public PeepholeOptimizer getOptimizer() {
+        return optimizer;
+    }
+
+    public void setOptimizer(PeepholeOptimizer optimizer) {
+        this.optimizer = optimizer;
+    }
+
+    // Number of code bytes removed by the peephole optimizer
+    public int getPeepholeSavings() {
+        return peepholeSavings;
+    }
+
+    public JumpThreader getJumpThreader() {
+        return threader;
+    }
+
+    public void setJumpThreader(JumpThreader threader) {
+        this.threader = threader;
+    }
+
+    public DeadCodeEliminator getDeadCodeEliminator() {
+        return deadCode;
+    }
+
+    public void setDeadCodeEliminator(DeadCodeEliminator deadCode) {
+        this.deadCode = deadCode;
+    }
+
+    // Number of code bytes removed because they could not be executed
+    public int getDeadCodeSavings() {
+        return deadCodeSavings;
+    }
+
     public String getLabelName(int id) {
      Label lab = labels.get(id);
      return lab.name;
     }
 
+    // Returns the lowest label id at position pos, or -1
     public int findLabelByPos(int pos) {
-        int startIndex =0;
+        if (pos<0)
+            return -1;
+        if (labelsByPos==null)
+            buildPositionIndex();
 
-        for (int i=startIndex;i<labels.size();i++) {
-            if  (labels.get(i).offset==pos) {
-                return i;
-            }
-        }
+        long key = ((long) pos) << 32;
+        int i = Arrays.binarySearch(labelsByPos, key);
+        if (i<0)
+            i = -i-1;
+        if ((i<labelsByPos.length) && ((int) (labelsByPos[i] >>> 32) == pos))
+            return (int) labelsByPos[i];
         return -1;
     }
 
-    public int findLabel(String name) {
-      for (int i=0;i<labels.size();i++) {
-          if  (labels.get(i).name.equalsIgnoreCase(name)) {
-              return i;
-          }
-      }return -1;
-    }
-
-    public void moveLabels(CodeBlock from, CodeBlock to, int len) {
+    void buildPositionIndex() {
+        long[] index = new long[labels.size()];
+        int n = 0;
         for (int i=0;i<labels.size();i++) {
-            Label label =labels.get(i);
-            if  (label.block==from) {
-                label.block = to;
-                if (label.offset <0)
-                 throw new RuntimeException("Invalid label");
-                label.offset +=len;
-            }
+            int ofs = labels.get(i).offset;
+            if (ofs>=0)
+                index[n++] = (((long) ofs) << 32) | i;
         }
+        index = Arrays.copyOf(index, n);
+        Arrays.sort(index);
+        labelsByPos = index;
+    }
+
+    // Returns the id of the first label named name, or -1. Names are matched
+    // ignoring case: name must already be upper case (see LLLLiteral.getKey()),
+    // the names of new labels are upper-cased once by getNewLabel.
+    public int findLabel(String name) {
+        if (name==null)
+            return -1;
+        Integer id = labelsByName.get(name);
+        if (id==null)
+            return -1;
+        return id;
     }
 
     public int getNewLabel(String name) {
         tagIdCount++;
         labels.add(new Label(-1,null,name)); // default no position
-        return tagIdCount-1;
+        int id = tagIdCount-1;
+        if (name!=null) {
+            String key = name.toUpperCase();
+            if (!labelsByName.containsKey(key))
+                labelsByName.put(key, id);
+        }
+        return id;
     }
 
+    // Defines the label at the current write position of ablock, which must be
+    // position. The position is relative to ablock, it becomes absolute when
+    // the block the label ends up in is fixed up.
     public void setLabelPosition(int id,CodeBlock ablock,int position) {
         Label label = labels.get(id);
         label.offset = position;
         label.block = ablock;
+        ablock.addLabel(id);
+        labelsByPos = null;
+    }
+
+    // Final layout pass: every label defined in a segment of block gets its
+    // absolute position and block as owner. The block keeps its own labels, so
+    // this does not depend on how many labels the compilation allocated.
+    void resolveLabels(CodeBlock block) {
+        labelsByPos = null;
+        for(int i=0;i<block.labels.size();i++) {
+            CodeTag c = block.labels.get(i);
+            Label label = labels.get(c.id);
+            label.offset = c.position;
+            label.block = block;
+        }
     }
 
     public void assign(byte[] data, int ofs, int i) {
-        data[ofs+3] = (byte) (i & 0xff);
-        data[ofs+2] = (byte) ((i>>8) & 0xff);
-        data[ofs+1] = (byte) ((i>>16) & 0xff);
-        data[ofs+0] = (byte) ((i>>24) & 0xff);
+        assign(data,ofs,i,4);
+    }
+
+    // writes i big-endian in size bytes
+    public void assign(byte[] data, int ofs, int i, int size) {
+        for (int j=size-1;j>=0;j--) {
+            data[ofs+j] = (byte) (i & 0xff);
+            i >>= 8;
+        }
     }
 
+    // Encodes instructions into the block: code, tags, label positions and
+    // source refs, and resolves the labels. Label references are written as
+    // PUSH4 placeholders.
+    public void assemble(List<Instruction> list, CodeBlock block) {
+        assemble(list,block,null);
+    }
+
+    // Like assemble(list,block), with the widths of the label references
+    // given by Assembler.relax()
+    void assemble(List<Instruction> list, CodeBlock block, int[] widths) {
+        Assembler.encode(list,block,widths);
+        resolveLabels(block);
+    }
+
+    // Jumps are threaded first, which leaves code unused. Dead code is removed
+    // next, then the peephole rules run. If they changed
+    // the code (e.g. a jump over dead code became a jump to the next label and
+    // was removed), dead code is looked for again, and if there was some the
+    // rules run again.
+    void optimize(List<Instruction> list) {
+        if ((threader!=null) && (threader.thread(list,this)))
+            labelsByPos = null;
+        for (boolean first=true;;first=false) {
+            List<Integer> dead = new ArrayList<>();
+            if ((deadCode!=null) && (deadCode.eliminate(list,labels.size(),dead))) {
+                deadCodeSavings += deadCode.getRemovedBytes();
+                for (int id : dead) {
+                    labels.get(id).offset = -1;
+                    labels.get(id).block = null;
+                }
+                labelsByPos = null;
+            } else
+            if (!first)
+                break;
+            if (optimizer==null)
+                break;
+            int before = Assembler.size(list);
+            if (!optimizer.optimize(list))
+                break;
+            peepholeSavings += before-Assembler.size(list);
+        }
+    }
+
+    // Returns true if every label referenced in list is defined in it
+    static boolean allDefined(List<Instruction> list, int labelCount) {
+        boolean[] defined = new boolean[labelCount];
+        for (Instruction ins : list)
+            if (ins.isLabel())
+                defined[ins.label] = true;
+        for (Instruction ins : list)
+            if ((ins.isPushLabel()) && (!defined[ins.label]))
+                return false;
+        return true;
+    }
+
+    // Optimizes the instructions of the block, encodes them and fills the
+    // label references. If a referenced label is not defined in the block
+    // (blocks have not been merged), the references to it are left unfilled,
+    // the code is not optimized and false is returned.
     public boolean performFixUp(CodeBlock block) {
-        boolean allFilled  = true;
         if (block==null)
             return true;
 
+        List<Instruction> list = block.getInstructions();
+        if (list==null)
+            return true; // read from the compile cache, already fixed up
+        boolean allFilled = allDefined(list,labels.size());
+
+        if ((allFilled) && ((optimizer!=null) || (deadCode!=null) || (threader!=null)))
+            optimize(list);
+
+        int[] widths = null;
+        if ((allFilled) && (relaxBranches)) {
+            widths = Assembler.relax(list,labels.size());
+            for (int w : widths)
+                relaxationSavings += 4-w;
+        }
+        assemble(list,block,widths);
+
         for(int i=0;i<block.tags.size();i++) {
             CodeTag c = block.tags.get(i);
             Label dest = labels.get(c.id);
-            // if there is a reference to an external label, we don't fill it
-            if (dest.offset <0)
-                allFilled = false;
-            else {
-                // the block of the label MUST be the block passed as argument,
-                // if not then blocks have not been merged
-                if (dest.block!=block)
-                    allFilled = false;
-                else
-                    assign(block.code, c.position, dest.offset);
-            }
+            if ((dest.offset>=0) && (dest.block==block))
+                assign(block.code, c.position, dest.offset, c.size);
         }
         return allFilled;
     }
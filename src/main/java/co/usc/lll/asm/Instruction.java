@@ -0,0 +1,100 @@
+package co.usc.lll.asm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// An instruction of the code generator output, before it is encoded into
+// bytes. Besides real opcodes, a list of instructions contains label
+// definitions (op==null, label>=0), raw bytes that are not valid opcodes
+// (op==null, data is the byte) and markers (op==null, no data) that only hold
+// source refs, e.g. the refs found after the last instruction. A PUSH whose
+// argument is a label reference has the label id in label. It is encoded as a
+// placeholder, as wide as branch relaxation makes it (PUSH4 without it), and
+// filled when the label is fixed up.
+public class Instruction {
+    public OpCode op;
+    public byte[] data; // PUSH argument, or the raw byte
+    public int label = -1;
+    public List<SourceRef> refs; // source refs that start at this instruction
+
+    public Instruction(OpCode op) {
+        this.op = op;
+    }
+
+    public Instruction(OpCode op, byte[] data) {
+        this.op = op;
+        this.data = data;
+    }
+
+    public static Instruction labelDef(int id) {
+        Instruction i = new Instruction(null);
+        i.label = id;
+        return i;
+    }
+
+    // The argument of label references until they are fixed up. It is shared,
+    // data is never modified.
+    static final byte[] PLACEHOLDER = new byte[4];
+
+    public static Instruction pushLabel(int id) {
+        Instruction i = new Instruction(OpCode.PUSH4, PLACEHOLDER);
+        i.label = id;
+        return i;
+    }
+
+    public static Instruction endMarker() {
+        return new Instruction(null);
+    }
+
+    public boolean isLabel() {
+        return (op==null) && (label>=0);
+    }
+
+    public boolean isPush() {
+        return (op!=null) && (op.val()>=OpCode.PUSH1.val()) && (op.val()<=OpCode.PUSH32.val());
+    }
+
+    public boolean isMarker() {
+        return (op==null) && (data==null) && (label<0);
+    }
+
+    public boolean isPushLabel() {
+        return (op!=null) && (label>=0);
+    }
+
+    public boolean is(OpCode o) {
+        return op==o;
+    }
+
+    public int size() {
+        if (op==null)
+            return (data==null) ? 0 : 1;
+        if (data!=null)
+            return 1+data.length;
+        return 1;
+    }
+
+    public void addRefs(List<SourceRef> r) {
+        if ((r==null) || (r.isEmpty()))
+            return;
+        if (refs==null)
+            refs = new ArrayList<>();
+        refs.addAll(r);
+    }
+
+    public String toString() {
+        if (isLabel())
+            return "L"+label+":";
+        if (op==null)
+            return (data==null) ? "END" : "DATA 0x"+Integer.toHexString(data[0] & 0xff);
+        if (isPushLabel())
+            return op.name()+" L"+label;
+        if (data!=null) {
+            StringBuilder sb = new StringBuilder(op.name()).append(" 0x");
+            for (byte b : data)
+                sb.append(String.format("%02x", b & 0xff));
+            return sb.toString();
+        }
+        return op.name();
+    }
+}
@@ -0,0 +1,189 @@
+package co.usc.lll.asm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Retargets jumps to where the code they jump to ends up going. From the
+// target, the code is followed while it only moves known values around:
+// JUMPDESTs, jumps to labels, constants pushed, ISZERO and POP of a known
+// value, and JUMPIs on a known condition. The jump is sent to the last point
+// of that path where the stack is as it was at the jump. This handles:
+//
+//   - jumps to a jump: the EXIT of a nested IF that jumps to the EXIT of the
+//     outer one.
+//   - booleans only made to be tested: && and || push 0 or 1 and jump to their
+//     EXIT, where an IF tests the value with ISZERO and JUMPI. PUSH c PUSH L
+//     JUMP becomes a jump to the branch of the IF the constant selects, and
+//     the JUMPIs of && and || jump to the branch their result selects.
+//
+// If the new target has no label with a JUMPDEST, both are inserted there.
+// The code left unused (the 0/1 pushes and the tests) is removed afterwards
+// by the DeadCodeEliminator.
+public class JumpThreader {
+    static final int MAX_STEPS = 64;
+    static final int MAX_DEPTH = 4;
+
+    List<Instruction> code;
+    EVMAssemblerHelper helper;
+    int[] labelIndex; // index of the definition of each label
+    int[] newLabelAt; // label inserted before each instruction, or -1
+
+    // Jumps retargeted and constants removed in the last run
+    int threaded;
+    int fused;
+
+    public int getThreaded() {
+        return threaded;
+    }
+
+    public int getFused() {
+        return fused;
+    }
+
+    // Returns true if the code was changed. New labels are taken from helper.
+    public boolean thread(List<Instruction> code, EVMAssemblerHelper helper) {
+        this.code = code;
+        this.helper = helper;
+        threaded = 0;
+        fused = 0;
+        int n = code.size();
+        labelIndex = new int[helper.labels.size()];
+        newLabelAt = new int[n];
+        Arrays.fill(newLabelAt,-1);
+        for (int i=0;i<n;i++)
+            if (code.get(i).isLabel())
+                labelIndex[code.get(i).label] = i;
+
+        for (int i=0;i+1<n;i++) {
+            Instruction push = code.get(i);
+            if ((push==null) || (!push.isPushLabel()))
+                continue;
+            Instruction jump = code.get(i+1);
+            if ((jump==null) || ((!jump.is(OpCode.JUMP)) && (!jump.is(OpCode.JUMPI))))
+                continue;
+            // PUSH c PUSH L JUMP: the constant is known at L
+            Instruction constant = (i>0) ? code.get(i-1) : null;
+            if ((jump.is(OpCode.JUMP)) && (isConstant(constant))) {
+                boolean[] stack = new boolean[MAX_DEPTH];
+                stack[0] = isNonZero(constant);
+                int d = follow(labelIndex[push.label],stack,1);
+                if (d>=0) {
+                    push.label = entry(d);
+                    push.addRefs(constant.refs);
+                    code.set(i-1,null);
+                    fused++;
+                    continue;
+                }
+            }
+            int d = follow(labelIndex[push.label],new boolean[MAX_DEPTH],0);
+            if ((d>=0) && (d!=firstInstruction(labelIndex[push.label]))) {
+                push.label = entry(d);
+                threaded++;
+            }
+        }
+        if ((threaded==0) && (fused==0))
+            return false;
+
+        List<Instruction> result = new ArrayList<>(n+16);
+        for (int i=0;i<n;i++) {
+            if (newLabelAt[i]>=0) {
+                result.add(Instruction.labelDef(newLabelAt[i]));
+                result.add(new Instruction(OpCode.JUMPDEST));
+            }
+            if (code.get(i)!=null)
+                result.add(code.get(i));
+        }
+        code.clear();
+        code.addAll(result);
+        return true;
+    }
+
+    static boolean isConstant(Instruction ins) {
+        return (ins!=null) && (ins.isPush()) && (!ins.isPushLabel()) && (ins.data!=null);
+    }
+
+    static boolean isNonZero(Instruction ins) {
+        for (byte b : ins.data)
+            if (b!=0)
+                return true;
+        return false;
+    }
+
+    static boolean skipped(Instruction ins) {
+        return (ins==null) || (ins.isLabel()) || (ins.is(OpCode.JUMPDEST));
+    }
+
+    int firstInstruction(int i) {
+        while ((i<code.size()) && (skipped(code.get(i))))
+            i++;
+        return i;
+    }
+
+    // Follows the code from index i, with depth known values on the stack (the
+    // top one last). Returns the index of the last instruction reached with
+    // none of them left, or -1.
+    int follow(int i, boolean[] stack, int depth) {
+        int clean = -1;
+        for (int steps=0;steps<MAX_STEPS;steps++) {
+            i = firstInstruction(i);
+            if (i>=code.size()-1) // the end marker
+                break;
+            if (depth==0)
+                clean = i;
+            Instruction ins = code.get(i);
+            Instruction next = code.get(i+1);
+            if ((ins.isPushLabel()) && (next!=null) && (next.is(OpCode.JUMP))) {
+                i = labelIndex[ins.label];
+                continue;
+            }
+            if ((ins.isPushLabel()) && (next!=null) && (next.is(OpCode.JUMPI))) {
+                if (depth==0)
+                    break;
+                i = (stack[--depth]) ? labelIndex[ins.label] : i+2;
+                continue;
+            }
+            if (isConstant(ins)) {
+                if (depth==MAX_DEPTH)
+                    break;
+                stack[depth++] = isNonZero(ins);
+            } else
+            if ((ins.is(OpCode.ISZERO)) && (depth>0))
+                stack[depth-1] = !stack[depth-1];
+            else
+            if ((ins.is(OpCode.POP)) && (depth>0))
+                depth--;
+            else
+                break;
+            i++;
+        }
+        return clean;
+    }
+
+    // A label a jump can take to reach index d: one defined before a JUMPDEST
+    // right before d, or a new one
+    int entry(int d) {
+        if (newLabelAt[d]>=0)
+            return newLabelAt[d];
+        boolean jumpDest = false;
+        for (int j=d-1;j>=0;j--) {
+            Instruction ins = code.get(j);
+            if (ins==null)
+                continue;
+            if (ins.is(OpCode.JUMPDEST))
+                jumpDest = true;
+            else
+            if ((ins.isLabel()) && (jumpDest))
+                return ins.label;
+            else
+            if (!ins.isLabel())
+                break;
+        }
+        int id = helper.getNewLabel(null);
+        if (id>=labelIndex.length)
+            labelIndex = Arrays.copyOf(labelIndex,Math.max(id+1,labelIndex.length*2));
+        labelIndex[id] = d;
+        newLabelAt[d] = id;
+        return id;
+    }
+}
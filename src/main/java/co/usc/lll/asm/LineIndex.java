@@ -0,0 +1,48 @@
+package co.usc.lll.asm;
+
+// Offsets where the lines of a source start, so that the line and column of an
+// offset can be found by binary search when they are needed (error messages,
+// source maps) instead of being counted while scanning. Lines and columns
+// start at 1.
+public class LineIndex {
+    int[] starts = new int[64];
+    int count = 1; // line 1 starts at offset 0
+
+    // Adds the lines that start after each '\n' in chars[from..to).
+    // base is the offset of chars[0] in the source.
+    public void scan(char[] chars, int from, int to, int base) {
+        for (int i = from; i < to; i++)
+            if (chars[i] == '\n')
+                addLine(base + i + 1);
+    }
+
+    public void addLine(int offset) {
+        if (count == starts.length) {
+            int[] n = new int[count * 2];
+            System.arraycopy(starts, 0, n, 0, count);
+            starts = n;
+        }
+        starts[count++] = offset;
+    }
+
+    public int getLineCount() {
+        return count;
+    }
+
+    public int getLine(int offset) {
+        int lo = 0;
+        int hi = count - 1;
+        while (lo < hi) { // last line that starts at or before offset
+            int mid = (lo + hi + 1) >>> 1;
+            if (starts[mid] <= offset)
+                lo = mid;
+            else
+                hi = mid - 1;
+        }
+        return lo + 1;
+    }
+
+    public int getColumn(int offset) {
+        return offset - starts[getLine(offset) - 1] + 1;
+    }
+}
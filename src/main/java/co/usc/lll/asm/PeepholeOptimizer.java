@@ -0,0 +1,180 @@
+package co.usc.lll.asm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Rewrites redundant instruction sequences left by the code generator. It runs
+// on the decoded code of a whole program, before branch relaxation and fix up.
+// Rules are tried in order at every position, and the code is scanned again
+// until no rule applies.
+public class PeepholeOptimizer {
+    List<PeepholeRule> rules = new ArrayList<>();
+    int maxPasses = 16;
+
+    public PeepholeOptimizer() {
+        rules.add(new PushPop());
+        rules.add(new SwapPopPop());
+        rules.add(new SwapSwap());
+        rules.add(new TripleIsZero());
+        rules.add(new IsZeroBranch());
+        rules.add(new NotEqualBranch());
+        rules.add(new JumpToNext());
+    }
+
+    public List<PeepholeRule> getRules() {
+        return rules;
+    }
+
+    public void addRule(PeepholeRule rule) {
+        rules.add(rule);
+    }
+
+    public boolean removeRule(String name) {
+        for (int i=0;i<rules.size();i++)
+            if (rules.get(i).getName().equals(name)) {
+                rules.remove(i);
+                return true;
+            }
+        return false;
+    }
+
+    public void setMaxPasses(int passes) {
+        maxPasses = passes;
+    }
+
+    // returns true if the code was changed
+    public boolean optimize(List<Instruction> code) {
+        boolean changed = false;
+        for (int pass=0;pass<maxPasses;pass++) {
+            boolean passChanged = false;
+            for (int i=0;i<code.size();i++)
+                for (PeepholeRule rule : rules)
+                    if (rule.apply(code,i))
+                        passChanged = true;
+            if (!passChanged)
+                break;
+            changed = true;
+        }
+        return changed;
+    }
+
+    static boolean isDup(Instruction ins) {
+        return (ins.op!=null) && (ins.op.val()>=OpCode.DUP1.val()) && (ins.op.val()<=OpCode.DUP16.val());
+    }
+
+    static boolean isSwap(Instruction ins) {
+        return (ins.op!=null) && (ins.op.val()>=OpCode.SWAP1.val()) && (ins.op.val()<=OpCode.SWAP16.val());
+    }
+
+    // PUSH x POP, DUPn POP -> (nothing)
+    // e.g. the PUSH1 1 of an MSTORE followed by the POP of a SEQ
+    static class PushPop extends PeepholeRule {
+        PushPop() { super("push-pop"); }
+
+        public boolean apply(List<Instruction> code, int index) {
+            if (index+1>=code.size())
+                return false;
+            Instruction ins = code.get(index);
+            if (((ins.isPush()) || (isDup(ins))) && (code.get(index+1).is(OpCode.POP))) {
+                replace(code,index,2);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    // SWAP1 POP POP -> POP POP (WITH followed by a POP)
+    static class SwapPopPop extends PeepholeRule {
+        SwapPopPop() { super("swap1-pop-pop"); }
+
+        public boolean apply(List<Instruction> code, int index) {
+            if (!matches(code,index,OpCode.SWAP1,OpCode.POP,OpCode.POP))
+                return false;
+            replace(code,index,1);
+            return true;
+        }
+    }
+
+    // SWAPn SWAPn -> (nothing)
+    static class SwapSwap extends PeepholeRule {
+        SwapSwap() { super("swap-swap"); }
+
+        public boolean apply(List<Instruction> code, int index) {
+            if (index+1>=code.size())
+                return false;
+            Instruction ins = code.get(index);
+            if ((isSwap(ins)) && (code.get(index+1).op==ins.op)) {
+                replace(code,index,2);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    // ISZERO ISZERO ISZERO -> ISZERO
+    static class TripleIsZero extends PeepholeRule {
+        TripleIsZero() { super("iszero-iszero-iszero"); }
+
+        public boolean apply(List<Instruction> code, int index) {
+            if (!matches(code,index,OpCode.ISZERO,OpCode.ISZERO,OpCode.ISZERO))
+                return false;
+            replace(code,index,2);
+            return true;
+        }
+    }
+
+    // ISZERO ISZERO PUSH JUMPI -> PUSH JUMPI
+    // JUMPI only tests for zero, so there is no need to turn the condition into 0/1.
+    // This removes the negation of >=, <= and != when used as IF/WHEN conditions.
+    static class IsZeroBranch extends PeepholeRule {
+        IsZeroBranch() { super("iszero-iszero-jumpi"); }
+
+        public boolean apply(List<Instruction> code, int index) {
+            if (!matches(code,index,OpCode.ISZERO,OpCode.ISZERO,null,OpCode.JUMPI))
+                return false;
+            replace(code,index,2);
+            return true;
+        }
+    }
+
+    // EQ ISZERO PUSH JUMPI -> SUB PUSH JUMPI
+    // a != b is the same condition as a - b != 0 (e.g. != in UNLESS)
+    static class NotEqualBranch extends PeepholeRule {
+        NotEqualBranch() { super("eq-iszero-jumpi"); }
+
+        public boolean apply(List<Instruction> code, int index) {
+            if (!matches(code,index,OpCode.EQ,OpCode.ISZERO,null,OpCode.JUMPI))
+                return false;
+            replace(code,index,2,new Instruction(OpCode.SUB));
+            return true;
+        }
+    }
+
+    // PUSH L JUMP L: -> L:
+    // PUSH L JUMPI L: -> POP L:
+    // The label (and its JUMPDEST) stays, other code may jump to it.
+    static class JumpToNext extends PeepholeRule {
+        JumpToNext() { super("jump-to-next"); }
+
+        public boolean apply(List<Instruction> code, int index) {
+            if (index+2>=code.size())
+                return false;
+            Instruction push = code.get(index);
+            if (!push.isPushLabel())
+                return false;
+            Instruction jump = code.get(index+1);
+            if ((!jump.is(OpCode.JUMP)) && (!jump.is(OpCode.JUMPI)))
+                return false;
+            boolean next = false;
+            for (int i=index+2;(i<code.size()) && (code.get(i).isLabel()) && (!next);i++)
+                next = (code.get(i).label==push.label);
+            if (!next)
+                return false;
+            if (jump.is(OpCode.JUMP))
+                replace(code,index,2);
+            else
+                replace(code,index,2,new Instruction(OpCode.POP));
+            return true;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package co.usc.lll.asm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// A rewrite of a short window of instructions. The optimizer calls apply() for
+// every index of the code, and the rule returns true if it changed the code there.
+public abstract class PeepholeRule {
+    final String name;
+
+    protected PeepholeRule(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public abstract boolean apply(List<Instruction> code, int index);
+
+    // Returns true if the instructions starting at index have the given opcodes.
+    // A null opcode matches any PUSH. A label between them breaks the match,
+    // because code may jump there.
+    protected static boolean matches(List<Instruction> code, int index, OpCode... ops) {
+        if (index+ops.length>code.size())
+            return false;
+        for (int i=0;i<ops.length;i++) {
+            Instruction ins = code.get(index+i);
+            if (ops[i]==null) {
+                if (!ins.isPush())
+                    return false;
+            } else
+            if (ins.op!=ops[i])
+                return false;
+        }
+        return true;
+    }
+
+    // Replaces count instructions starting at index. The source refs of the
+    // removed instructions move to the first replacement, or to the instruction
+    // that follows if nothing replaces them, so positions stay consistent.
+    protected static void replace(List<Instruction> code, int index, int count, Instruction... with) {
+        List<Instruction> removed = code.subList(index, index+count);
+        List<SourceRef> refs = new ArrayList<>();
+        for (Instruction ins : removed) {
+            if (ins.refs!=null)
+                refs.addAll(ins.refs);
+            ins.refs = null;
+        }
+        removed.clear();
+        code.addAll(index, Arrays.asList(with));
+        if (refs.isEmpty())
+            return;
+        Instruction target = code.get(index); // there is always an end marker
+        if (target.refs!=null)
+            refs.addAll(target.refs);
+        target.refs = refs;
+    }
+}
@@ -5,12 +5,22 @@ public class SourceRef {
     public int startChar;
     public int length;
     public String source;
+    public LineIndex lines; // of the source, may be null
 
     public SourceRef cloneSourceRef() {
         SourceRef ret = new SourceRef(position,startChar,length,source);
+        ret.lines = lines;
         return ret;
     }
 
+    public int getLine() {
+        return (lines == null) ? 0 : lines.getLine(startChar);
+    }
+
+    public int getColumn() {
+        return (lines == null) ? 0 : lines.getColumn(startChar);
+    }
+
     public SourceRef(int position,int startChar,int length,String source) {
         this.position = position;
         this.startChar = startChar;
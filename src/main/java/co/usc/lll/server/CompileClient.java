@@ -0,0 +1,225 @@
+package co.usc.lll.server;
+
+import co.usc.lll.LLLCompilationError;
+import co.usc.lll.LLLCompiler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// Sends compilations to a CompileServer and prints the code of each file in
+// hex, one line per file. Errors are printed to stderr, and the exit status is
+// 1 if any file did not compile.
+//
+//   java co.usc.lll.server.CompileClient [--port N] [--token-file FILE]
+//        [--direct] [--verbose] [--stats] [--shutdown] file...
+//        (- reads the source from stdin)
+//
+// --direct compiles in this JVM instead, as the compiler did before the
+// server, to compare.
+//
+// The file paths are sent as absolute paths, but relative include paths in the
+// sources are resolved against the working directory of the server. Use
+// absolute include paths, or start the server in the directory the includes
+// are relative to; --direct resolves them against the current directory.
+public class CompileClient {
+    final Socket socket;
+    final DataInputStream in;
+    final DataOutputStream out;
+
+    // The result of a compilation: the code, or the error
+    public static class Result {
+        public byte[] code;
+        public String error;
+        public int relaxationSavings;
+        public int peepholeSavings;
+        public long micros; // compile time in the server
+    }
+
+    public CompileClient(int port) throws IOException {
+        this(port, CompileProtocol.defaultTokenFile(port));
+    }
+
+    // The token is read from the file the server wrote it to
+    public CompileClient(int port, Path tokenFile) throws IOException {
+        String token = CompileProtocol.readToken(tokenFile);
+        socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        CompileProtocol.writeString(out, token);
+        out.flush();
+        if (in.readByte() == CompileProtocol.ERROR) {
+            String message = CompileProtocol.readString(in);
+            socket.close();
+            throw new IOException(message);
+        }
+    }
+
+    public Result compileSource(String name, String source) throws IOException {
+        out.writeByte(CompileProtocol.SOURCE);
+        CompileProtocol.writeString(out, name);
+        CompileProtocol.writeString(out, source);
+        out.flush();
+        return readResult();
+    }
+
+    // The path is resolved here, the server may have another working directory
+    public Result compileFile(String path) throws IOException {
+        out.writeByte(CompileProtocol.FILE);
+        CompileProtocol.writeString(out, Paths.get(path).toAbsolutePath().toString());
+        out.flush();
+        return readResult();
+    }
+
+    Result readResult() throws IOException {
+        Result r = new Result();
+        if (in.readByte() == CompileProtocol.ERROR) {
+            r.error = CompileProtocol.readString(in);
+            return r;
+        }
+        r.code = CompileProtocol.readBytes(in);
+        r.relaxationSavings = in.readInt();
+        r.peepholeSavings = in.readInt();
+        r.micros = in.readLong();
+        return r;
+    }
+
+    public String getStats() throws IOException {
+        out.writeByte(CompileProtocol.STATS);
+        out.flush();
+        in.readByte();
+        return CompileProtocol.readString(in);
+    }
+
+    public void shutdownServer() throws IOException {
+        out.writeByte(CompileProtocol.SHUTDOWN);
+        out.flush();
+        socket.close();
+    }
+
+    public void close() throws IOException {
+        try {
+            out.writeByte(CompileProtocol.CLOSE);
+            out.flush();
+        } finally {
+            socket.close();
+        }
+    }
+
+    static String readStdin() throws IOException {
+        InputStream is = System.in;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = is.read(buf)) > 0)
+            bytes.write(buf, 0, n);
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    static String hex(byte[] code) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : code)
+            sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    static Result compileDirect(String file) throws IOException {
+        Result r = new Result();
+        long start = System.nanoTime();
+        try {
+            LLLCompiler c = new LLLCompiler();
+            if (file.equals("-"))
+                c.compile(readStdin());
+            else
+                c.compileFile(file);
+            r.code = c.getCodeBlock().getCode();
+            r.relaxationSavings = c.getRelaxationSavings();
+            r.peepholeSavings = c.getPeepholeSavings();
+        } catch (LLLCompilationError e) {
+            r.error = e.getMessage();
+        }
+        r.micros = (System.nanoTime() - start) / 1000;
+        return r;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = CompileProtocol.DEFAULT_PORT;
+        Path tokenFile = null;
+        boolean direct = false;
+        boolean verbose = false;
+        boolean stats = false;
+        boolean shutdown = false;
+        int first = 0;
+        while (first < args.length) {
+            String a = args[first];
+            if ((a.equals("--port")) && (first + 1 < args.length)) {
+                port = Integer.parseInt(args[first + 1]);
+                first += 2;
+                continue;
+            }
+            if ((a.equals("--token-file")) && (first + 1 < args.length)) {
+                tokenFile = Paths.get(args[first + 1]);
+                first += 2;
+                continue;
+            }
+            if (a.equals("--direct"))
+                direct = true;
+            else if (a.equals("--verbose"))
+                verbose = true;
+            else if (a.equals("--stats"))
+                stats = true;
+            else if (a.equals("--shutdown"))
+                shutdown = true;
+            else
+                break;
+            first++;
+        }
+        if ((first == args.length) && (!stats) && (!shutdown)) {
+            System.err.println("Usage: CompileClient [--port N] [--token-file FILE] [--direct] [--verbose] [--stats] [--shutdown] file...");
+            System.err.println("Relative include paths are resolved against the working directory of the server (of this JVM with --direct).");
+            System.exit(2);
+        }
+        if (tokenFile == null)
+            tokenFile = CompileProtocol.defaultTokenFile(port);
+
+        CompileClient client = direct ? null : new CompileClient(port, tokenFile);
+        boolean failed = false;
+        for (int i = first; i < args.length; i++) {
+            String file = args[i];
+            Result r;
+            if (direct)
+                r = compileDirect(file);
+            else if (file.equals("-"))
+                r = client.compileSource("<stdin>", readStdin());
+            else
+                r = client.compileFile(file);
+            if (r.error != null) {
+                System.err.println(file + ": " + r.error);
+                failed = true;
+                continue;
+            }
+            System.out.println(hex(r.code));
+            if (verbose)
+                System.err.println(file + ": " + r.code.length + " bytes, " + r.micros + " us");
+        }
+        if (client != null) {
+            if (stats)
+                System.err.println(client.getStats());
+            if (shutdown)
+                client.shutdownServer();
+            else
+                client.close();
+        }
+        System.exit(failed ? 1 : 0);
+    }
+}
@@ -0,0 +1,119 @@
+package co.usc.lll.server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+// The messages between CompileClient and CompileServer. A connection starts
+// with the token of the server, and then carries any number of requests, each
+// one answered before the next one is read:
+//
+//   hello:    string token
+//             answered with byte status, then for ERROR: string message
+//   request:  byte op, then for SOURCE: string name, string source
+//                           for FILE:   string path
+//   response: byte status, then for OK:    bytes code, int relaxation savings,
+//                                          int peephole savings, long micros
+//                               for ERROR: string message
+//                               for STATS: string statistics
+//
+// A string is an int length and UTF-8 bytes, bytes are an int length and the
+// bytes. CLOSE ends the connection, SHUTDOWN also stops the server. A
+// connection that does not send the token in HELLO_TIMEOUT_MILLIS is closed.
+//
+// Any local user can connect to the loopback port, and the server reads FILE
+// paths with its own permissions. So the server writes a random token to a
+// file only its user can read, and serves only the connections that send it.
+public class CompileProtocol {
+    public static final int DEFAULT_PORT = 7321;
+    static final int TOKEN_BYTES = 32;
+
+    // requests
+    public static final byte CLOSE = 0;
+    public static final byte SOURCE = 1;
+    public static final byte FILE = 2;
+    public static final byte STATS = 3;
+    public static final byte SHUTDOWN = 4;
+
+    // responses
+    public static final byte OK = 0;
+    public static final byte ERROR = 1;
+
+    static final int MAX_LENGTH = 256 * 1024 * 1024;
+
+    // How long the server waits for the token of a new connection
+    static final int HELLO_TIMEOUT_MILLIS = 5000;
+
+    // In the home directory of the user, where other users can not replace it
+    public static Path defaultTokenFile(int port) {
+        return Paths.get(System.getProperty("user.home"), ".lll-compile-server-" + port + ".token");
+    }
+
+    // A new random token, written to file with read and write permissions for
+    // its owner only (where the file system supports POSIX permissions)
+    static String createToken(Path file) throws IOException {
+        byte[] b = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(b);
+        StringBuilder sb = new StringBuilder();
+        for (byte x : b)
+            sb.append(String.format("%02x", x));
+        String token = sb.toString();
+
+        Files.deleteIfExists(file);
+        if (file.getFileSystem().supportedFileAttributeViews().contains("posix"))
+            Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        else
+            Files.createFile(file);
+        Files.write(file, token.getBytes(StandardCharsets.UTF_8));
+        return token;
+    }
+
+    static String readToken(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim();
+    }
+
+    // The token sent by a client, or null if it is not one. It is read before
+    // the client is known, so it can not ask for a large buffer.
+    static String readHello(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if ((length < 0) || (length > TOKEN_BYTES * 2))
+            return null;
+        byte[] b = new byte[length];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    // Compares the whole token, whatever byte differs
+    static boolean sameToken(String a, String b) {
+        return MessageDigest.isEqual(a.getBytes(StandardCharsets.UTF_8), b.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static void writeString(DataOutputStream out, String s) throws IOException {
+        writeBytes(out, s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static String readString(DataInputStream in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    public static void writeBytes(DataOutputStream out, byte[] b) throws IOException {
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    public static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if ((length < 0) || (length > MAX_LENGTH))
+            throw new IOException("Invalid length: " + length);
+        byte[] b = new byte[length];
+        in.readFully(b);
+        return b;
+    }
+}
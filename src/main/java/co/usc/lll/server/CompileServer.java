@@ -0,0 +1,246 @@
+package co.usc.lll.server;
+
+import co.usc.lll.CompileCache;
+import co.usc.lll.IncludeCache;
+import co.usc.lll.LLLCompilation;
+import co.usc.lll.LLLCompilationError;
+import co.usc.lll.LLLCompiler;
+import co.usc.lll.LLLCompilerConfig;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+// A compiler that stays running, so that compilations run on a warm JVM (the
+// JIT has compiled the compiler) and the include and compile caches are kept
+// between them. It only listens on the loopback interface, and only serves
+// clients that send the token it writes to tokenFile. Each client connection
+// has its own thread, so idle clients do not hold back the others, and at
+// most threads compilations run at once. All of them share the same
+// LLLCompiler. See CompileProtocol for the messages.
+//
+// Relative include paths are resolved against the working directory of the
+// server, as in any compilation, not against the one of the client.
+//
+//   java co.usc.lll.server.CompileServer [--port N] [--threads N]
+//        [--cache DIR] [--cache-size BYTES] [--token-file FILE]
+public class CompileServer {
+    final LLLCompiler compiler;
+    final IncludeCache includeCache;
+    final CompileCache compileCache;
+    final ServerSocket serverSocket;
+    final ExecutorService connections;
+    final Semaphore compilations; // one permit per compilation running
+    final Path tokenFile;
+    final String token;
+    final AtomicLong requests = new AtomicLong();
+    final AtomicLong errors = new AtomicLong();
+    volatile int helloTimeout = CompileProtocol.HELLO_TIMEOUT_MILLIS;
+    volatile boolean stopped;
+
+    public CompileServer(int port, int threads, LLLCompilerConfig config) throws IOException {
+        this(port, threads, config, null);
+    }
+
+    // If tokenFile is null, the default one for the port is used
+    public CompileServer(int port, int threads, LLLCompilerConfig config, Path tokenFile) throws IOException {
+        this.includeCache = config.getIncludeCache();
+        this.compileCache = config.getCompileCache();
+        compiler = new LLLCompiler(config);
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        connections = Executors.newCachedThreadPool();
+        compilations = new Semaphore(threads);
+        if (tokenFile == null)
+            tokenFile = CompileProtocol.defaultTokenFile(serverSocket.getLocalPort());
+        this.tokenFile = tokenFile;
+        try {
+            token = CompileProtocol.createToken(tokenFile);
+        } catch (IOException e) {
+            serverSocket.close();
+            throw e;
+        }
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public Path getTokenFile() {
+        return tokenFile;
+    }
+
+    // Accepts connections until stop() is called
+    public void run() {
+        try {
+            while (!stopped) {
+                final Socket socket = serverSocket.accept();
+                connections.execute(new Runnable() {
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+            }
+        } catch (IOException e) {
+            if (!stopped)
+                System.err.println("Compile server stopped: " + e.getMessage());
+        } finally {
+            connections.shutdown();
+        }
+    }
+
+    public void stop() {
+        stopped = true;
+        try {
+            Files.deleteIfExists(tokenFile);
+        } catch (IOException e) {
+            // the token is useless once the server stops
+        }
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+    }
+
+    void serve(Socket socket) {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            // a client that never sends the token must not keep the thread
+            socket.setSoTimeout(helloTimeout);
+            String hello = CompileProtocol.readHello(in);
+            if ((hello == null) || (!CompileProtocol.sameToken(token, hello))) {
+                out.writeByte(CompileProtocol.ERROR);
+                CompileProtocol.writeString(out, "Invalid token, see " + tokenFile);
+                out.flush();
+                return;
+            }
+            socket.setSoTimeout(0);
+            out.writeByte(CompileProtocol.OK);
+            out.flush();
+            while (true) {
+                byte op;
+                try {
+                    op = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (op == CompileProtocol.CLOSE)
+                    break;
+                if (op == CompileProtocol.SHUTDOWN) {
+                    stop();
+                    break;
+                }
+                if (op == CompileProtocol.STATS) {
+                    out.writeByte(CompileProtocol.OK);
+                    CompileProtocol.writeString(out, getStats());
+                } else if ((op == CompileProtocol.SOURCE) || (op == CompileProtocol.FILE)) {
+                    String name = CompileProtocol.readString(in);
+                    String source = (op == CompileProtocol.SOURCE) ? CompileProtocol.readString(in) : null;
+                    compile(name, source, out);
+                } else
+                    throw new IOException("Unknown request: " + op);
+                out.flush();
+            }
+            out.flush();
+        } catch (IOException e) {
+            // the client went away, or sent garbage
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // closed anyway
+            }
+        }
+    }
+
+    void compile(String name, String source, DataOutputStream out) throws IOException {
+        requests.incrementAndGet();
+        long start = System.nanoTime();
+        LLLCompilation c;
+        try {
+            compilations.acquireUninterruptibly();
+            try {
+                if (source != null)
+                    c = compiler.compileSource(name, source);
+                else
+                    c = compiler.compilePath(name);
+            } finally {
+                compilations.release();
+            }
+        } catch (LLLCompilationError e) {
+            errors.incrementAndGet();
+            out.writeByte(CompileProtocol.ERROR);
+            CompileProtocol.writeString(out, e.getMessage());
+            return;
+        } catch (RuntimeException e) {
+            // a bug in the compiler must not stop the server
+            errors.incrementAndGet();
+            out.writeByte(CompileProtocol.ERROR);
+            CompileProtocol.writeString(out, "Internal error: " + e);
+            return;
+        }
+        out.writeByte(CompileProtocol.OK);
+        CompileProtocol.writeBytes(out, c.getCode());
+        out.writeInt(c.getRelaxationSavings());
+        out.writeInt(c.getPeepholeSavings());
+        out.writeLong((System.nanoTime() - start) / 1000);
+    }
+
+    public String getStats() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("requests: ").append(requests.get()).append(", errors: ").append(errors.get());
+        if (includeCache != null)
+            sb.append("\ninclude cache: ").append(includeCache.size()).append(" files, ")
+                    .append(includeCache.getHits()).append(" hits, ").append(includeCache.getMisses()).append(" misses");
+        if (compileCache != null)
+            sb.append("\ncompile cache: ").append(compileCache.getSize()).append(" bytes, ")
+                    .append(compileCache.getHits()).append(" hits, ").append(compileCache.getMisses()).append(" misses, ")
+                    .append(compileCache.getEvictions()).append(" evictions");
+        return sb.toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = CompileProtocol.DEFAULT_PORT;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String cacheDir = null;
+        long cacheSize = 256L * 1024 * 1024;
+        Path tokenFile = null;
+        for (int i = 0; i < args.length; i++) {
+            String a = args[i];
+            if ((a.equals("--port")) && (i + 1 < args.length))
+                port = Integer.parseInt(args[++i]);
+            else if ((a.equals("--threads")) && (i + 1 < args.length))
+                threads = Integer.parseInt(args[++i]);
+            else if ((a.equals("--cache")) && (i + 1 < args.length))
+                cacheDir = args[++i];
+            else if ((a.equals("--cache-size")) && (i + 1 < args.length))
+                cacheSize = Long.parseLong(args[++i]);
+            else if ((a.equals("--token-file")) && (i + 1 < args.length))
+                tokenFile = Paths.get(args[++i]);
+            else {
+                System.err.println("Usage: CompileServer [--port N] [--threads N] [--cache DIR] [--cache-size BYTES] [--token-file FILE]");
+                System.exit(2);
+            }
+        }
+        LLLCompilerConfig config = LLLCompilerConfig.DEFAULT.withIncludeCache(new IncludeCache());
+        if (cacheDir != null)
+            config = config.withCompileCache(new CompileCache(Paths.get(cacheDir), cacheSize));
+        CompileServer server = new CompileServer(port, threads, config, tokenFile);
+        System.err.println("Compile server listening on 127.0.0.1:" + server.getPort() + ", token in " + server.getTokenFile());
+        server.run();
+    }
+}
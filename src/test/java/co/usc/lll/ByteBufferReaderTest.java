@@ -0,0 +1,60 @@
+package co.usc.lll;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ByteBufferReaderTest {
+    // ASCII, 2 and 3 byte chars, surrogate pairs, and invalid bytes
+    static final byte[] TEXT = concat(
+            "(seq [[0]] \"abc\") ; ñandú €".getBytes(StandardCharsets.UTF_8),
+            "😀😁x😂".getBytes(StandardCharsets.UTF_8),
+            new byte[]{(byte) 0xff, 'a', (byte) 0xc3},
+            "\n😀".getBytes(StandardCharsets.UTF_8));
+
+    static byte[] concat(byte[]... parts) {
+        int n = 0;
+        for (byte[] p : parts)
+            n += p.length;
+        byte[] r = new byte[n];
+        n = 0;
+        for (byte[] p : parts) {
+            System.arraycopy(p, 0, r, n, p.length);
+            n += p.length;
+        }
+        return r;
+    }
+
+    // Reads the whole reader asking for chunk chars at a time
+    static String readAll(Reader reader, int chunk) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        char[] buf = new char[chunk + 2];
+        int read;
+        // at an odd offset, so the chunks do not start at 0
+        while ((read = reader.read(buf, 1, chunk)) >= 0) {
+            assertTrue("read returned 0", read > 0);
+            assertTrue(read <= chunk);
+            sb.append(buf, 1, read);
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void readsAsStringDecodes() throws IOException {
+        String expected = new String(TEXT, StandardCharsets.UTF_8);
+        for (int chunk = 1; chunk <= 9; chunk++)
+            assertEquals("chunk " + chunk, expected, readAll(new ByteBufferReader(ByteBuffer.wrap(TEXT)), chunk));
+        assertEquals(expected, readAll(new ByteBufferReader(ByteBuffer.wrap(TEXT)), 4096));
+    }
+
+    @Test
+    public void emptyBuffer() throws IOException {
+        assertEquals(-1, new ByteBufferReader(ByteBuffer.allocate(0)).read(new char[4], 0, 4));
+    }
+}
@@ -0,0 +1,116 @@
+package co.usc.lll;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static co.usc.lll.TestUtil.run;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompileCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    CompileCache cache;
+    LLLCompilerConfig config;
+
+    @Before
+    public void create() throws IOException {
+        cache = new CompileCache(folder.newFolder("cache").toPath(), 1 << 20);
+        config = LLLCompilerConfig.DEFAULT.withCompileCache(cache);
+    }
+
+    String path(String name, String text) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        return file.getPath().replace('\\', '/');
+    }
+
+    byte[] compile(String src) throws LLLCompilationError {
+        return new LLLCompiler(config).compileSource("test", src).getCode();
+    }
+
+    @Test
+    public void hit() throws LLLCompilationError {
+        String src = "(seq (when @@0 [[1]] 5) (stop))";
+        byte[] first = compile(src);
+        assertEquals(0, cache.getHits());
+        assertEquals(1, cache.getStores());
+        byte[] second = compile(src);
+        assertEquals(1, cache.getHits());
+        assertArrayEquals(first, second);
+        assertArrayEquals(LLLCompiler.compileToCode(src), second);
+    }
+
+    // The options that change the code are part of the key
+    @Test
+    public void optionsInKey() throws LLLCompilationError {
+        String src = "(seq [[0]] (add 1 2) (stop))";
+        compile(src);
+        config = config.withOptimize(false);
+        compile(src);
+        assertEquals(0, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void includedFileChanged() throws IOException, LLLCompilationError {
+        String inc = path("k.lll", "(seq (def 'k () 3) 0)");
+        String src = "(seq (include \"" + inc + "\") [[0]] (k) (stop))";
+        assertEquals(3, run(compile(src)).load(0));
+        assertEquals(3, run(compile(src)).load(0));
+        assertEquals(1, cache.getHits());
+
+        path("k.lll", "(seq (def 'k () 4) 0)");
+        assertEquals(4, run(compile(src)).load(0));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(4, run(compile(src)).load(0));
+        assertEquals(2, cache.getHits());
+    }
+
+    // A source file is keyed by its text, its includes by their hashes
+    @Test
+    public void sourceFile() throws IOException, LLLCompilationError {
+        String inc = path("v.lll", "(seq (def 'v () 8) 0)");
+        String main = path("main.lll", "(seq (include \"" + inc + "\") [[0]] (v) (stop))");
+        LLLCompiler compiler = new LLLCompiler(config);
+        assertEquals(8, run(compiler.compilePath(main).getCode()).load(0));
+        assertEquals(8, run(compiler.compilePath(main).getCode()).load(0));
+        assertEquals(1, cache.getHits());
+
+        path("v.lll", "(seq (def 'v () 9) 0)");
+        assertEquals(9, run(compiler.compilePath(main).getCode()).load(0));
+        assertEquals(1, cache.getHits());
+    }
+
+    // Room for one entry: storing a second one deletes the first
+    @Test
+    public void evictsLeastRecentlyUsed() throws IOException, LLLCompilationError {
+        String a = "(seq [[0]] 1 (stop))";
+        String b = "(seq [[0]] 2 (stop))";
+        compile(a);
+        File dir = folder.newFolder("small");
+        cache = new CompileCache(dir.toPath(), cache.getSize() * 3 / 2);
+        config = config.withCompileCache(cache);
+        compile(a);
+        for (File f : dir.listFiles())
+            assertTrue(f.setLastModified(f.lastModified() - 60000));
+        compile(b);
+        assertEquals(1, cache.getEvictions());
+        assertEquals(1, dir.listFiles().length);
+        compile(b);
+        assertEquals(1, cache.getHits());
+        compile(a);
+        assertEquals(1, cache.getHits());
+    }
+}
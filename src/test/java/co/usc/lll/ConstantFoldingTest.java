@@ -0,0 +1,77 @@
+package co.usc.lll;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import static co.usc.lll.TestUtil.compile;
+import static co.usc.lll.TestUtil.run;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ConstantFoldingTest {
+
+    static BigInteger stored(String src) throws LLLCompilationError {
+        return run(src).storage.get(BigInteger.ZERO);
+    }
+
+    @Test
+    public void foldsToShorterPush() throws LLLCompilationError {
+        // PUSH1 5 PUSH1 0 SSTORE PUSH1 1
+        assertArrayEquals(new byte[]{0x60, 5, 0x60, 0, 0x55, 0x60, 1}, compile("(sstore 0 (add 2 (mul 1 3)))"));
+    }
+
+    // The values need a PUSH32, the code that computes them is shorter
+    @Test
+    public void keepsCodeShorterThanPush() throws LLLCompilationError {
+        assertEquals(10, compile("(sstore 0 (sub 2 5))").length);
+        assertEquals(10, compile("(sstore 0 (exp 2 255))").length);
+        assertEquals(13, compile("(sstore 0 (sdiv (sub 0 7) 2))").length);
+    }
+
+    @Test
+    public void sameValueEitherWay() throws LLLCompilationError {
+        BigInteger m = BigInteger.ONE.shiftLeft(256);
+        assertEquals(m.subtract(BigInteger.valueOf(3)), stored("(sstore 0 (sub 2 5))"));
+        assertEquals(BigInteger.ONE.shiftLeft(255), stored("(sstore 0 (exp 2 255))"));
+        assertEquals(m.subtract(BigInteger.valueOf(3)), stored("(sstore 0 (sdiv (sub 0 7) 2))"));
+        assertEquals(BigInteger.valueOf(12), stored("(sstore 0 (mul (add 1 2) 4))"));
+    }
+
+    @Test
+    public void throughMacros() throws LLLCompilationError {
+        // PUSH1 12 PUSH1 0 SSTORE PUSH1 1
+        assertArrayEquals(new byte[]{0x60, 12, 0x60, 0, 0x55, 0x60, 1},
+                compile("(seq (def 'k 5) (def 'twice ($x) (mul $x 2)) (sstore 0 (add (twice k) 2)))"));
+    }
+
+    // Only the constant arguments are folded
+    @Test
+    public void partlyConstant() throws LLLCompilationError {
+        // PUSH1 6 PUSH1 0 SLOAD ADD ...
+        byte[] code = compile("(sstore 0 (add @@0 (mul 2 3)))");
+        assertArrayEquals(new byte[]{0x60, 6, 0x60, 0, 0x54, 0x01}, Arrays.copyOf(code, 6));
+    }
+
+    @Test
+    public void deepNesting() throws LLLCompilationError {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 300; i++)
+            sb.append("(add ");
+        sb.append("1");
+        for (int i = 0; i < 300; i++)
+            sb.append(" 1)");
+        assertEquals(BigInteger.valueOf(301), stored("(sstore 0 " + sb + ")"));
+        assertEquals(8, compile("(sstore 0 " + sb + ")").length); // PUSH2 301 PUSH1 0 SSTORE PUSH1 1
+    }
+
+    @Test
+    public void notWithoutOptimize() throws LLLCompilationError {
+        LLLCompilerConfig plain = LLLCompilerConfig.DEFAULT.withOptimize(false);
+        // PUSH1 3 PUSH1 2 ADD PUSH1 0 SSTORE PUSH1 1
+        assertArrayEquals(new byte[]{0x60, 3, 0x60, 2, 0x01, 0x60, 0, 0x55, 0x60, 1},
+                compile("(sstore 0 (add 2 3))", plain));
+        assertEquals(BigInteger.valueOf(5), run("(seq (sstore 0 (add 2 3)) (stop))", plain).storage.get(BigInteger.ZERO));
+    }
+}
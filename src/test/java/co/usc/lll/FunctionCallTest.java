@@ -0,0 +1,106 @@
+package co.usc.lll;
+
+import org.junit.Test;
+
+import static co.usc.lll.TestUtil.compile;
+import static co.usc.lll.TestUtil.hex;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Calls of functions (FUNC), see the calling convention in LLLCodeGenerator.
+// Each program is run called (inlining disabled), with the default inlining
+// and with every function inlined, and must do the same.
+public class FunctionCallTest {
+    static final int[] INLINE_SIZES = { -1, LLLCompilerConfig.DEFAULT.getInlineSize(), 100000 };
+    static final LLLCompilerConfig NO_INLINE = LLLCompilerConfig.DEFAULT.withInlineSize(-1);
+
+    // Runs src with every inlining setting, and checks that it stops with an
+    // empty stack and the storage given as key, value pairs
+    static void assertStores(String src, long... storage) throws LLLCompilationError {
+        for (int inlineSize : INLINE_SIZES) {
+            MiniEVM evm = MiniEVM.run(compile(src, LLLCompilerConfig.DEFAULT.withInlineSize(inlineSize)));
+            String where = "inline " + inlineSize;
+            assertEquals(where, MiniEVM.Status.STOP, evm.status);
+            assertTrue(where, evm.stack.isEmpty());
+            assertEquals(where, storage.length / 2, evm.storage.size());
+            for (int i = 0; i < storage.length; i += 2)
+                assertEquals(where + " key " + storage[i], storage[i + 1], evm.load(storage[i]));
+        }
+    }
+
+    @Test
+    public void noArguments() throws LLLCompilationError {
+        assertStores("(seq (func seven () (add @@5 7)) [[0]] (seven) (seven) [[1]] (add (seven) 1) (stop))",
+                0, 7, 1, 8);
+        assertStores("(seq (func touch () (sstore 9 (add @@9 1))) (touch) (touch) (stop))",
+                9, 2);
+    }
+
+    @Test
+    public void oneArgumentResultDiscarded() throws LLLCompilationError {
+        assertStores("(seq (func mark ($k) (sstore $k 1)) (mark 3) (mark 4) (stop))",
+                3, 1, 4, 1);
+    }
+
+    // SWAPn POP (n times) SWAP1 JUMP, with the function called
+    @Test
+    public void valueReturn() throws LLLCompilationError {
+        String code = hex(compile("(seq (func minus ($a $b) (sub $a $b)) [[0]] (minus @@1 @@2) (stop))", NO_INLINE));
+        assertTrue(code, code.endsWith("9150509056"));
+        code = hex(compile("(seq (func seven () (add @@5 7)) [[0]] (seven) (stop))", NO_INLINE));
+        assertTrue(code, code.endsWith("9056"));
+    }
+
+    // POP (n+1 times) JUMP, and the value is never moved
+    @Test
+    public void noValueReturn() throws LLLCompilationError {
+        String code = hex(compile("(seq (func put ($k $v) (sstore $k $v)) (put 1 5) (put 2 6) (stop))", NO_INLINE));
+        assertTrue(code, code.endsWith("5056"));
+        for (int i = 0; i < code.length(); i += 2)
+            assertTrue(code, code.charAt(i) != '9'); // no SWAP, pushed values are < 0x90
+    }
+
+    @Test
+    public void oneArgumentResultUsed() throws LLLCompilationError {
+        assertStores("(seq (func twice ($x) (mul $x 2)) [[0]] (twice 7) [[1]] (twice (twice 3)) (stop))",
+                0, 14, 1, 12);
+    }
+
+    @Test
+    public void twoArgumentsResultUsed() throws LLLCompilationError {
+        assertStores("(seq (func minus ($a $b) (sub $a $b)) [[0]] (minus 7 2) [[1]] (minus 9 (minus 3 1)) (stop))",
+                0, 5, 1, 7);
+    }
+
+    @Test
+    public void resultNeverUsed() throws LLLCompilationError {
+        assertStores("(seq (func put ($k $v) (sstore $k $v)) (put 1 5) (put 2 6) (stop))",
+                1, 5, 2, 6);
+    }
+
+    @Test
+    public void resultUsedAndDiscarded() throws LLLCompilationError {
+        assertStores("(seq (func inc ($k) (seq [[$k]] (add @@$k 1) @@$k)) (inc 1) (inc 1) [[2]] (inc 1) (stop))",
+                1, 3, 2, 3);
+    }
+
+    // The arguments of a call refer to variables of the caller, below the
+    // return address and the arguments already pushed
+    @Test
+    public void argumentsUseCallerVariables() throws LLLCompilationError {
+        assertStores("(seq (func minus ($a $b) (sub $a $b))" +
+                        " (func f ($x $y) (minus (add $x $y) (minus $y $x)))" +
+                        " [[0]] (f 10 4) [[1]] (f 2 3) (stop))",
+                0, 20, 1, 4);
+    }
+
+    // A function inlined in another, whose result no call uses: the copies of
+    // the POPs that discard it must go with the originals
+    @Test
+    public void inlinedCallerOfFunctionWithUnusedResult() throws LLLCompilationError {
+        assertStores("(seq (func in ($a) (seq [[5]] $a [[6]] $a [[7]] 3 [[8]] 4 (add $a 2)))" +
+                        " (func out ($x) (seq (in $x) 3))" +
+                        " [[0]] (out 1) [[1]] (out 3) [[3]] (out 4) (in 5) (stop))",
+                0, 3, 1, 3, 3, 3, 5, 5, 6, 5, 7, 3, 8, 4);
+    }
+}
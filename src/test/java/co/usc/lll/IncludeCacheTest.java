@@ -0,0 +1,68 @@
+package co.usc.lll;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.assertEquals;
+
+public class IncludeCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    static void write(File file, String text, long modified) throws IOException {
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(modified));
+    }
+
+    static String opcodeOf(IncludeCache cache, File file) throws IOException, LLLCompilationError {
+        return cache.getNode(file.getPath()).opcode;
+    }
+
+    @Test
+    public void oldFileIsNotReadAgain() throws IOException, LLLCompilationError {
+        File file = folder.newFile("old.lll");
+        write(file, "(add 1 2)", System.currentTimeMillis() - 60000);
+        IncludeCache cache = new IncludeCache();
+        assertEquals("add", opcodeOf(cache, file));
+        assertEquals("add", opcodeOf(cache, file));
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+    }
+
+    // Changed within the same modification time, with the same size
+    @Test
+    public void recentChangeWithSameTimeAndSize() throws IOException, LLLCompilationError {
+        File file = folder.newFile("recent.lll");
+        long now = System.currentTimeMillis();
+        write(file, "(add 1 2)", now);
+        IncludeCache cache = new IncludeCache();
+        assertEquals("add", opcodeOf(cache, file));
+        write(file, "(sub 1 2)", now);
+        assertEquals("sub", opcodeOf(cache, file));
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void changedTime() throws IOException, LLLCompilationError {
+        File file = folder.newFile("changed.lll");
+        long old = System.currentTimeMillis() - 60000;
+        write(file, "(add 1 2)", old);
+        IncludeCache cache = new IncludeCache();
+        assertEquals("add", opcodeOf(cache, file));
+        write(file, "(sub 1 2)", old + 1000);
+        assertEquals("sub", opcodeOf(cache, file));
+        // same content again, not parsed
+        write(file, "(sub 1 2)", old + 2000);
+        assertEquals("sub", opcodeOf(cache, file));
+        assertEquals(2, cache.getMisses());
+        assertEquals(1, cache.getHits());
+    }
+}
@@ -0,0 +1,132 @@
+package co.usc.lll;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static co.usc.lll.TestUtil.run;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IncludeExpanderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // The path of a file in the folder, which may not exist yet
+    String file(String name) {
+        return new File(folder.getRoot(), name).getPath().replace('\\', '/');
+    }
+
+    String path(String name, String text) throws IOException {
+        File file = folder.newFile(name);
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        return file.getPath().replace('\\', '/');
+    }
+
+    // () has no elements, the search for includes must skip it
+    @Test
+    public void zeroArgumentDefAndFunc() throws LLLCompilationError {
+        for (boolean compact : new boolean[]{ false, true }) {
+            MiniEVM evm = run("(seq (def 'five () 5) (func seven () (add 3 4))" +
+                    " [[0]] (five) [[1]] (seven) [[2]] (add (seven) (five)) (stop))", LLLCompilerConfig.DEFAULT.withCompactTree(compact));
+            assertEquals(5, evm.load(0));
+            assertEquals(7, evm.load(1));
+            assertEquals(12, evm.load(2));
+        }
+    }
+
+    @Test
+    public void includes() throws IOException, LLLCompilationError {
+        String inner = path("inner.lll", "(seq (def 'k () 9) 0)");
+        String outer = path("outer.lll", "(seq (include \"" + inner + "\") (def 'twice ($x) (mul $x 2)) 0)");
+        for (boolean compact : new boolean[]{ false, true }) {
+            MiniEVM evm = run("(seq (include \"" + outer + "\") [[0]] (twice (k)) (stop))", LLLCompilerConfig.DEFAULT.withCompactTree(compact));
+            assertEquals(18, evm.load(0));
+        }
+    }
+
+    @Test
+    public void fileNameNotAString() {
+        try {
+            new LLLCompiler().compile("(include name.lll)");
+            fail();
+        } catch (LLLCompilationError e) {
+            assertEquals("Filename must be a string literal: name.lll", e.getMessage());
+        }
+    }
+
+    static String canonical(String path) throws IOException {
+        return new File(path).getCanonicalPath();
+    }
+
+    void assertCycle(String src, String chain, boolean compact) {
+        try {
+            new LLLCompiler(LLLCompilerConfig.DEFAULT.withCompactTree(compact)).compile(src);
+            fail();
+        } catch (LLLCompilationError e) {
+            assertEquals("Include cycle: " + chain, e.getMessage());
+        }
+    }
+
+    @Test
+    public void cycle() throws IOException {
+        String a = path("a.lll", "(seq (include \"" + file("b.lll") + "\") 0)");
+        String b = path("b.lll", "(seq (include \"" + a + "\") 0)");
+        for (boolean compact : new boolean[]{ false, true })
+            assertCycle("(include \"" + a + "\")",
+                    IncludeExpander.SOURCE + " -> " + canonical(a) + " -> " + canonical(b) + " -> " + canonical(a), compact);
+    }
+
+    @Test
+    public void includesItself() throws IOException {
+        String a = path("self.lll", "(seq (include \"" + file("self.lll") + "\") 0)");
+        for (boolean compact : new boolean[]{ false, true })
+            assertCycle("(seq (include \"" + a + "\") (stop))",
+                    IncludeExpander.SOURCE + " -> " + canonical(a) + " -> " + canonical(a), compact);
+    }
+
+    // The main file is part of the chain
+    @Test
+    public void cycleThroughMainFile() throws IOException {
+        String main = path("main.lll", "(seq (include \"" + file("main.lll") + "\") (stop))");
+        try {
+            new LLLCompiler().compileFile(main);
+            fail();
+        } catch (LLLCompilationError e) {
+            assertEquals("Include cycle: " + canonical(main) + " -> " + canonical(main), e.getMessage());
+        }
+    }
+
+    // A file included twice, not from itself, is not a cycle
+    @Test
+    public void diamond() throws IOException, LLLCompilationError {
+        String d = path("d.lll", "(seq [[0]] (add @@0 1) 0)");
+        String b = path("b.lll", "(seq (include \"" + d + "\") 0)");
+        String c = path("c.lll", "(seq (include \"" + d + "\") 0)");
+        for (boolean compact : new boolean[]{ false, true }) {
+            LLLCompiler compiler = new LLLCompiler(LLLCompilerConfig.DEFAULT.withCompactTree(compact));
+            compiler.compile("(seq (include \"" + b + "\") (include \"" + c + "\") (stop))");
+            assertEquals(2, run(compiler.getCodeBlock().getCode()).load(0));
+            assertEquals(2, compiler.getIncludeGraph().get(IncludeExpander.SOURCE).size());
+            assertTrue(compiler.getIncludeGraph().get(canonical(b)).contains(canonical(d)));
+            assertTrue(compiler.getIncludeGraph().get(canonical(c)).contains(canonical(d)));
+        }
+    }
+
+    @Test
+    public void fileNotFound() {
+        try {
+            new LLLCompiler().compile("(include \"" + file("none.lll") + "\")");
+            fail();
+        } catch (LLLCompilationError e) {
+            assertTrue(e.getMessage().startsWith("Include file not found: "));
+        }
+    }
+}
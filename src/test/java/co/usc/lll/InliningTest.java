@@ -0,0 +1,83 @@
+package co.usc.lll;
+
+import org.junit.Test;
+
+import static co.usc.lll.TestUtil.run;
+import static org.junit.Assert.assertEquals;
+
+// Which function calls are expanded in place. The programs have no jumps
+// other than those of the calls that are not.
+public class InliningTest {
+    static final String BIG = "(func big ($a) (seq [[10]] $a [[11]] (add $a 1) [[12]] (add $a 2) (mul $a 5)))";
+    static final LLLCompilerConfig INLINE = LLLCompilerConfig.DEFAULT.withInlineSize(16);
+    static final LLLCompilerConfig NO_INLINE = LLLCompilerConfig.DEFAULT.withInlineSize(-1);
+    static final String SMALL = "(func small ($a) (add $a 1))";
+
+    // JUMP instructions in the code
+    static int jumps(MiniEVM evm) {
+        int n = 0;
+        for (int i = 0; i < evm.code.length; i++) {
+            int op = evm.code[i] & 0xff;
+            if (op == 0x56)
+                n++;
+            if ((op >= 0x60) && (op <= 0x7f))
+                i += op - 0x5f;
+        }
+        return n;
+    }
+
+    @Test
+    public void smallFunctionInlined() throws LLLCompilationError {
+        MiniEVM evm = run("(seq " + SMALL + " [[0]] (small 1) [[1]] (small 5) (stop))", INLINE);
+        assertEquals(0, jumps(evm));
+        assertEquals(2, evm.load(0));
+        assertEquals(6, evm.load(1));
+    }
+
+    // Two calls and the return
+    @Test
+    public void bigFunctionCalledTwiceNotInlined() throws LLLCompilationError {
+        MiniEVM evm = run("(seq " + BIG + " [[0]] (big 1) [[1]] (big 2) (stop))", INLINE);
+        assertEquals(3, jumps(evm));
+        assertEquals(5, evm.load(0));
+        assertEquals(10, evm.load(1));
+        assertEquals(4, evm.load(12));
+    }
+
+    @Test
+    public void bigFunctionCalledOnceInlined() throws LLLCompilationError {
+        MiniEVM evm = run("(seq " + BIG + " [[0]] (big 3) (stop))", INLINE);
+        assertEquals(0, jumps(evm));
+        assertEquals(15, evm.load(0));
+        assertEquals(4, evm.load(11));
+    }
+
+    // A call in a macro is written at each expansion, a call in the argument
+    // of a macro as many times as the macro uses it
+    @Test
+    public void callsInMacrosCountTwice() throws LLLCompilationError {
+        MiniEVM evm = run("(seq " + BIG + " (def 'through ($x) (big $x)) [[0]] (through 1) (stop))", INLINE);
+        assertEquals(2, jumps(evm)); // the call and the return
+        assertEquals(5, evm.load(0));
+
+        evm = run("(seq " + BIG + " (def 'double ($x) (add $x $x)) [[0]] (double (big 3)) (stop))", INLINE);
+        assertEquals(3, jumps(evm)); // the argument is expanded twice
+        assertEquals(30, evm.load(0));
+    }
+
+    @Test
+    public void disabled() throws LLLCompilationError {
+        MiniEVM evm = run("(seq " + SMALL + " [[0]] (small 1) (stop))", NO_INLINE);
+        assertEquals(2, jumps(evm));
+        assertEquals(2, evm.load(0));
+    }
+
+    // A function that calls another: both are expanded
+    @Test
+    public void nested() throws LLLCompilationError {
+        MiniEVM evm = run("(seq " + SMALL + " (func twice ($b) (small (small $b))) [[0]] (twice 1) [[1]] (twice 7) (stop))", INLINE);
+        assertEquals(0, jumps(evm));
+        assertEquals(3, evm.load(0));
+        assertEquals(9, evm.load(1));
+    }
+}
@@ -0,0 +1,82 @@
+package co.usc.lll;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import static co.usc.lll.TestUtil.run;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LLLCompilerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void savingsBeforeFirstCompile() {
+        LLLCompiler compiler = new LLLCompiler();
+        assertNull(compiler.getHelper());
+        assertEquals(0, compiler.getRelaxationSavings());
+        assertEquals(0, compiler.getPeepholeSavings());
+        assertEquals(0, compiler.getDeadCodeSavings());
+    }
+
+    @Test
+    public void batchKeepsErrors() throws InterruptedException {
+        Map<String, String> sources = new LinkedHashMap<>();
+        sources.put("a", "(seq [[0]] 1 (stop))");
+        sources.put("b", "(seq [[0]] (foo) (stop))");
+        sources.put("c", "(seq [[0]] 3 (stop))");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Map<String, LLLCompilation> r = new LLLCompiler().compileAll(sources, executor);
+            assertEquals("[a, b, c]", r.keySet().toString());
+            assertEquals(1, run(r.get("a").getCode()).load(0));
+            assertNull(r.get("b").getCode());
+            assertNotNull(r.get("b").getError());
+            assertEquals(3, run(r.get("c").getCode()).load(0));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // An unexpected exception in one source is kept as its error, the other
+    // sources are still compiled
+    @Test
+    public void batchKeepsInternalErrors() throws IOException, InterruptedException {
+        File inc = folder.newFile("k.lll");
+        Files.write(inc.toPath(), "(seq (def 'k () 3) 0)".getBytes(StandardCharsets.UTF_8));
+        Executor rejecting = new Executor() {
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        };
+        Map<String, String> sources = new LinkedHashMap<>();
+        sources.put("a", "(seq [[0]] 1 (stop))");
+        sources.put("b", "(seq (include \"" + inc.getPath().replace('\\', '/') + "\") [[0]] (k) (stop))");
+        sources.put("c", "(seq [[0]] 3 (stop))");
+        LLLCompiler compiler = new LLLCompiler(LLLCompilerConfig.DEFAULT.withIncludeExecutor(rejecting));
+        Map<String, LLLCompilation> r = compiler.compileAll(sources);
+        assertEquals(1, run(r.get("a").getCode()).load(0));
+        LLLCompilation b = r.get("b");
+        assertNull(b.getCode());
+        assertTrue(b.getError().getMessage().startsWith("Internal error: "));
+        assertTrue(b.getError().getCause() instanceof RejectedExecutionException);
+        assertEquals(0, b.getPeepholeSavings());
+        assertEquals(3, run(r.get("c").getCode()).load(0));
+    }
+}
@@ -0,0 +1,110 @@
+package co.usc.lll;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LLLTokenizerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Returns at most chunk chars per read, and no chars every other read
+    static class ChunkReader extends Reader {
+        Reader in;
+        int chunk;
+        boolean empty;
+
+        ChunkReader(String s, int chunk) {
+            in = new StringReader(s);
+            this.chunk = chunk;
+        }
+
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            empty = !empty;
+            if (empty)
+                return 0;
+            return in.read(cbuf, off, Math.min(len, chunk));
+        }
+
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    static List<String> tokens(LLLTokenizer st) {
+        List<String> r = new ArrayList<>();
+        while (st.hasMoreTokens())
+            r.add(st.nextToken());
+        return r;
+    }
+
+    @Test
+    public void splitsTokens() {
+        List<String> t = tokens(new LLLTokenizer("(seq [[0]] @@1 (when (>= x 0x10) \"ab\") {}) ; end"));
+        assertEquals("[(, seq, [[, 0, ]], @@, 1, (, when, (, >=, x, 0x10, ), \"ab\", ), {, }, )]", t.toString());
+    }
+
+    @Test
+    public void kinds() {
+        LLLTokenizer st = new LLLTokenizer("[[ ]] @ name 12 \"s\"");
+        LLLTokenizer.TokenKind[] kinds = {
+                LLLTokenizer.TokenKind.OPEN, LLLTokenizer.TokenKind.CLOSE, LLLTokenizer.TokenKind.SYMBOL,
+                LLLTokenizer.TokenKind.WORD, LLLTokenizer.TokenKind.WORD, LLLTokenizer.TokenKind.STRING };
+        for (LLLTokenizer.TokenKind kind : kinds) {
+            st.nextTokenSearch();
+            assertEquals(kind, st.getTokenKind());
+        }
+        assertTrue(!st.hasMoreTokens());
+    }
+
+    // Names are shared, numbers and strings are created for each token
+    @Test
+    public void onlyNamesShared() {
+        List<String> t = tokens(new LLLTokenizer("name 1234 \"s\" name 1234 \"s\""));
+        assertSame(t.get(0), t.get(3));
+        assertNotSame(t.get(1), t.get(4));
+        assertNotSame(t.get(2), t.get(5));
+    }
+
+    @Test
+    public void readerChunks() {
+        String src = "(seq ; comment\n [[0]] @@1 (when (>= x 0x10) \"ab\") {}) ; end";
+        List<String> expected = tokens(new LLLTokenizer(src));
+        for (int chunk = 1; chunk <= 7; chunk++)
+            assertEquals("chunk " + chunk, expected, tokens(new LLLTokenizer(new ChunkReader(src, chunk))));
+    }
+
+    // A comment that fills the read buffer up to its last char, followed by a
+    // char that takes two
+    @Test
+    public void surrogatePairAtBufferEnd() throws IOException, LLLCompilationError {
+        StringBuilder sb = new StringBuilder(";");
+        for (int i = 0; i < LLLTokenizer.READ_BUFFER_SIZE - 2; i++)
+            sb.append('a');
+        sb.append("\uD83D\uDE00\n(seq [[0]] 1)");
+        File file = folder.newFile("long-comment.lll");
+        Files.write(file.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+
+        LLLCompiler fromString = new LLLCompiler();
+        fromString.compile(sb.toString());
+        LLLCompiler fromFile = new LLLCompiler();
+        fromFile.compileFile(file.getPath());
+        assertArrayEquals(fromString.getCodeBlock().getCode(), fromFile.getCodeBlock().getCode());
+    }
+}
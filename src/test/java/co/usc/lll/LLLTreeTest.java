@@ -0,0 +1,33 @@
+package co.usc.lll;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class LLLTreeTest {
+
+    // The generator reads arguments many times, they are created once
+    @Test
+    public void viewsAreKept() throws LLLCompilationError {
+        LLLTree tree = new LLLTreeParser().parseTree("(seq (add (mul 2 x) 1) (stop))");
+        LLLNode root = tree.getRoot();
+        assertSame(root, tree.getRoot());
+        LLLNode add = (LLLNode) root.argAt(0);
+        assertSame(add, root.argAt(0));
+        assertSame(add.argAt(0), add.argAt(0));
+        assertSame(add.argAt(1), add.argAt(1)); // literals are shared
+        assertEquals("ADD", add.key);
+        assertEquals(2, add.argCount());
+        assertEquals(1, add.getLine());
+        assertEquals(6, add.getColumn());
+    }
+
+    @Test
+    public void sameCodeAsNodes() throws LLLCompilationError {
+        String src = "(seq (def 'k ($a) (mul $a 3)) (when @@0 [[1]] (k (add @@2 1))) [[3]] (k 2) (stop))";
+        byte[] nodes = TestUtil.compile(src);
+        byte[] tree = TestUtil.compile(src, LLLCompilerConfig.DEFAULT.withCompactTree(true));
+        assertEquals(TestUtil.hex(nodes), TestUtil.hex(tree));
+    }
+}
@@ -0,0 +1,276 @@
+package co.usc.lll;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// A small interpreter of the EVM opcodes the compiler writes, to check what
+// compiled code does. No gas, no calls to other contracts (CALL pushes 1),
+// memory is limited to 1 MB.
+public class MiniEVM {
+    static final BigInteger M = BigInteger.ONE.shiftLeft(256);
+    static final BigInteger HALF = BigInteger.ONE.shiftLeft(255);
+    static final int MAX_STEPS = 200000;
+    static final int MAX_MEMORY = 1 << 20;
+
+    public enum Status { STOP, RETURN, SUICIDE, BAD_JUMP, UNDERFLOW, LOOP, UNSUPPORTED }
+
+    byte[] code;
+    public byte[] callData = new byte[0];
+    public BigInteger caller = BigInteger.valueOf(0x1234);
+
+    public List<BigInteger> stack = new ArrayList<>();
+    byte[] memory = new byte[0];
+    public Map<BigInteger, BigInteger> storage = new HashMap<>();
+    public byte[] returned;
+    public Status status;
+    int steps;
+
+    public MiniEVM(byte[] code) {
+        this.code = code;
+    }
+
+    public static MiniEVM run(byte[] code) {
+        MiniEVM evm = new MiniEVM(code);
+        evm.run();
+        return evm;
+    }
+
+    public Status run() {
+        status = interpret();
+        return status;
+    }
+
+    public long load(long key) {
+        BigInteger v = storage.get(BigInteger.valueOf(key));
+        return (v == null) ? 0 : v.longValue();
+    }
+
+    BigInteger pop() {
+        if (stack.isEmpty())
+            throw new IndexOutOfBoundsException();
+        return stack.remove(stack.size() - 1);
+    }
+
+    void push(BigInteger v) {
+        stack.add(v.mod(M));
+    }
+
+    void push(boolean b) {
+        stack.add(b ? BigInteger.ONE : BigInteger.ZERO);
+    }
+
+    static BigInteger signed(BigInteger v) {
+        return (v.compareTo(HALF) >= 0) ? v.subtract(M) : v;
+    }
+
+    void expand(int offset, int size) {
+        if (size == 0)
+            return;
+        if (offset + size > MAX_MEMORY)
+            throw new IndexOutOfBoundsException();
+        if (offset + size > memory.length) {
+            byte[] m = new byte[offset + size];
+            System.arraycopy(memory, 0, m, 0, memory.length);
+            memory = m;
+        }
+    }
+
+    static BigInteger word(byte[] data, int offset) {
+        byte[] w = new byte[32];
+        for (int i = 0; i < 32; i++)
+            if (offset + i < data.length)
+                w[i] = data[offset + i];
+        return new BigInteger(1, w);
+    }
+
+    // SIGNEXTEND: extends the sign of byte n (0 is the lowest) of v
+    static BigInteger signExtend(BigInteger n, BigInteger v) {
+        if (n.compareTo(BigInteger.valueOf(31)) >= 0)
+            return v;
+        int bit = n.intValue() * 8 + 7;
+        BigInteger low = v.and(BigInteger.ONE.shiftLeft(bit + 1).subtract(BigInteger.ONE));
+        return v.testBit(bit) ? low.subtract(BigInteger.ONE.shiftLeft(bit + 1)) : low;
+    }
+
+    static byte[] bytes(BigInteger v) {
+        byte[] b = v.toByteArray();
+        byte[] w = new byte[32];
+        int n = Math.min(b.length, 32);
+        System.arraycopy(b, b.length - n, w, 32 - n, n);
+        return w;
+    }
+
+    Set<Integer> jumpDests() {
+        Set<Integer> dests = new HashSet<>();
+        for (int i = 0; i < code.length; i++) {
+            int op = code[i] & 0xff;
+            if (op == 0x5b)
+                dests.add(i);
+            if ((op >= 0x60) && (op <= 0x7f))
+                i += op - 0x5f;
+        }
+        return dests;
+    }
+
+    Status interpret() {
+        Set<Integer> dests = jumpDests();
+        int pc = 0;
+        try {
+            while (true) {
+                if (++steps > MAX_STEPS)
+                    return Status.LOOP;
+                if (pc >= code.length)
+                    return Status.STOP;
+                int op = code[pc++] & 0xff;
+                if ((op >= 0x60) && (op <= 0x7f)) {
+                    int n = op - 0x5f;
+                    byte[] data = new byte[n];
+                    for (int i = 0; i < n; i++)
+                        data[i] = (pc + i < code.length) ? code[pc + i] : 0;
+                    push(new BigInteger(1, data));
+                    pc += n;
+                    continue;
+                }
+                if ((op >= 0x80) && (op <= 0x8f)) {
+                    int n = op - 0x7f;
+                    if (n > stack.size())
+                        return Status.UNDERFLOW;
+                    push(stack.get(stack.size() - n));
+                    continue;
+                }
+                if ((op >= 0x90) && (op <= 0x9f)) {
+                    int n = op - 0x8f;
+                    if (n >= stack.size())
+                        return Status.UNDERFLOW;
+                    int top = stack.size() - 1;
+                    BigInteger t = stack.get(top);
+                    stack.set(top, stack.get(top - n));
+                    stack.set(top - n, t);
+                    continue;
+                }
+                switch (op) {
+                    case 0x00:
+                        return Status.STOP;
+                    case 0x50:
+                        pop();
+                        continue;
+                    case 0x5b:
+                        continue;
+                    case 0x56: {
+                        BigInteger d = pop();
+                        if (!dests.contains(d.intValue()) || (d.bitLength() > 31))
+                            return Status.BAD_JUMP;
+                        pc = d.intValue();
+                        continue;
+                    }
+                    case 0x57: {
+                        BigInteger d = pop();
+                        BigInteger c = pop();
+                        if (c.signum() != 0) {
+                            if (!dests.contains(d.intValue()) || (d.bitLength() > 31))
+                                return Status.BAD_JUMP;
+                            pc = d.intValue();
+                        }
+                        continue;
+                    }
+                    case 0x33:
+                        push(caller);
+                        continue;
+                    case 0x34:
+                        push(BigInteger.ZERO);
+                        continue;
+                    case 0x35:
+                        push(word(callData, pop().intValue()));
+                        continue;
+                    case 0x36:
+                        push(BigInteger.valueOf(callData.length));
+                        continue;
+                    case 0x51: {
+                        int o = pop().intValue();
+                        expand(o, 32);
+                        push(word(memory, o));
+                        continue;
+                    }
+                    case 0x52: {
+                        int o = pop().intValue();
+                        BigInteger v = pop();
+                        expand(o, 32);
+                        System.arraycopy(bytes(v), 0, memory, o, 32);
+                        continue;
+                    }
+                    case 0x53: {
+                        int o = pop().intValue();
+                        BigInteger v = pop();
+                        expand(o, 1);
+                        memory[o] = (byte) v.intValue();
+                        continue;
+                    }
+                    case 0x54: {
+                        BigInteger v = storage.get(pop());
+                        push((v == null) ? BigInteger.ZERO : v);
+                        continue;
+                    }
+                    case 0x55: {
+                        BigInteger k = pop();
+                        storage.put(k, pop());
+                        continue;
+                    }
+                    case 0xf3: {
+                        int o = pop().intValue();
+                        int n = pop().intValue();
+                        expand(o, n);
+                        returned = new byte[n];
+                        System.arraycopy(memory, o, returned, 0, n);
+                        return Status.RETURN;
+                    }
+                    case 0xf1:
+                        for (int i = 0; i < 7; i++)
+                            pop();
+                        push(BigInteger.ONE);
+                        continue;
+                    case 0xff:
+                        pop();
+                        return Status.SUICIDE;
+                    case 0x15:
+                        push(pop().signum() == 0);
+                        continue;
+                    case 0x19:
+                        push(M.subtract(BigInteger.ONE).subtract(pop()));
+                        continue;
+                }
+                BigInteger a = pop();
+                BigInteger b = pop();
+                switch (op) {
+                    case 0x01: push(a.add(b)); break;
+                    case 0x02: push(a.multiply(b)); break;
+                    case 0x03: push(a.subtract(b)); break;
+                    case 0x04: push((b.signum() == 0) ? BigInteger.ZERO : a.divide(b)); break;
+                    case 0x05: push((b.signum() == 0) ? BigInteger.ZERO : signed(a).divide(signed(b))); break;
+                    case 0x06: push((b.signum() == 0) ? BigInteger.ZERO : a.mod(b)); break;
+                    case 0x07: push((b.signum() == 0) ? BigInteger.ZERO : signed(a).remainder(signed(b))); break;
+                    case 0x0b: push(signExtend(a, b)); break;
+                    case 0x0a: push(a.modPow(b, M)); break;
+                    case 0x10: push(a.compareTo(b) < 0); break;
+                    case 0x11: push(a.compareTo(b) > 0); break;
+                    case 0x12: push(signed(a).compareTo(signed(b)) < 0); break;
+                    case 0x13: push(signed(a).compareTo(signed(b)) > 0); break;
+                    case 0x14: push(a.equals(b)); break;
+                    case 0x16: push(a.and(b)); break;
+                    case 0x17: push(a.or(b)); break;
+                    case 0x18: push(a.xor(b)); break;
+                    case 0x1a: push((a.compareTo(BigInteger.valueOf(32)) < 0) ?
+                            BigInteger.valueOf(bytes(b)[a.intValue()] & 0xff) : BigInteger.ZERO); break;
+                    default:
+                        return Status.UNSUPPORTED;
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            return Status.UNDERFLOW;
+        }
+    }
+}
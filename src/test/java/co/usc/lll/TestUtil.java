@@ -0,0 +1,62 @@
+package co.usc.lll;
+
+import co.usc.lll.asm.Instruction;
+import co.usc.lll.asm.OpCode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+// Helpers shared by the tests: instruction lists for the asm passes, and
+// programs compiled and run in MiniEVM.
+public class TestUtil {
+
+    public static Instruction push(int b) {
+        return new Instruction(OpCode.PUSH1, new byte[]{(byte) b});
+    }
+
+    public static Instruction op(OpCode op) {
+        return new Instruction(op);
+    }
+
+    // The instructions, followed by the end marker
+    public static List<Instruction> code(Instruction... ins) {
+        List<Instruction> code = new ArrayList<>(Arrays.asList(ins));
+        code.add(Instruction.endMarker());
+        return code;
+    }
+
+    public static byte[] compile(String src) throws LLLCompilationError {
+        return compile(src, LLLCompilerConfig.DEFAULT);
+    }
+
+    public static byte[] compile(String src, LLLCompilerConfig config) throws LLLCompilationError {
+        LLLCompiler compiler = new LLLCompiler(config);
+        compiler.compile(src);
+        return compiler.getCodeBlock().getCode();
+    }
+
+    // Runs the code, which must stop
+    public static MiniEVM run(byte[] code) {
+        MiniEVM evm = MiniEVM.run(code);
+        assertEquals(MiniEVM.Status.STOP, evm.status);
+        return evm;
+    }
+
+    public static MiniEVM run(String src) throws LLLCompilationError {
+        return run(compile(src));
+    }
+
+    public static MiniEVM run(String src, LLLCompilerConfig config) throws LLLCompilationError {
+        return run(compile(src, config));
+    }
+
+    public static String hex(byte[] code) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : code)
+            sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+}
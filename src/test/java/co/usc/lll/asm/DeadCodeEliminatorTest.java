@@ -0,0 +1,93 @@
+package co.usc.lll.asm;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static co.usc.lll.TestUtil.code;
+import static co.usc.lll.TestUtil.op;
+import static co.usc.lll.TestUtil.push;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DeadCodeEliminatorTest {
+    static final int LABELS = 4;
+
+    static String text(List<Instruction> code) {
+        return code.toString();
+    }
+
+    @Test
+    public void removesCodeAfterJump() {
+        List<Instruction> code = code(
+                Instruction.pushLabel(0), op(OpCode.JUMP),
+                push(2), op(OpCode.POP),
+                Instruction.labelDef(0), op(OpCode.JUMPDEST), op(OpCode.STOP));
+        DeadCodeEliminator d = new DeadCodeEliminator();
+        assertTrue(d.eliminate(code, LABELS, null));
+        assertEquals("[PUSH4 L0, JUMP, L0:, JUMPDEST, STOP, END]", text(code));
+        assertEquals(2, d.getRemoved());
+        assertEquals(3, d.getRemovedBytes());
+    }
+
+    // A label only pushed, as a return address is, is a target
+    @Test
+    public void pushedLabelIsLive() {
+        List<Instruction> code = code(
+                Instruction.pushLabel(1), push(0), op(OpCode.MSTORE), op(OpCode.STOP),
+                Instruction.labelDef(1), op(OpCode.JUMPDEST), op(OpCode.STOP),
+                Instruction.labelDef(2), op(OpCode.JUMPDEST), op(OpCode.STOP));
+        List<Integer> dead = new ArrayList<>();
+        assertTrue(new DeadCodeEliminator().eliminate(code, LABELS, dead));
+        assertEquals("[PUSH4 L1, PUSH1 0x00, MSTORE, STOP, L1:, JUMPDEST, STOP, END]", text(code));
+        assertEquals(Collections.singletonList(2), dead);
+    }
+
+    // A JUMPDEST without a label may be reached by a computed address
+    @Test
+    public void jumpDestWithoutLabelIsLive() {
+        List<Instruction> code = code(
+                op(OpCode.STOP),
+                op(OpCode.JUMPDEST), push(1), op(OpCode.STOP));
+        assertFalse(new DeadCodeEliminator().eliminate(code, LABELS, null));
+        assertEquals(5, code.size());
+    }
+
+    // Labels pushed only by dead code are dead
+    @Test
+    public void deadCodeTargetsAreDead() {
+        List<Instruction> code = code(
+                op(OpCode.STOP),
+                Instruction.labelDef(0), op(OpCode.JUMPDEST), Instruction.pushLabel(1), op(OpCode.JUMP),
+                Instruction.labelDef(1), op(OpCode.JUMPDEST), Instruction.pushLabel(0), op(OpCode.JUMP));
+        List<Integer> dead = new ArrayList<>();
+        assertTrue(new DeadCodeEliminator().eliminate(code, LABELS, dead));
+        assertEquals("[STOP, END]", text(code));
+        assertEquals(Arrays.asList(0, 1), dead);
+    }
+
+    // The code before a label runs into it
+    @Test
+    public void fallThroughIsLive() {
+        List<Instruction> code = code(
+                push(1), op(OpCode.POP),
+                Instruction.labelDef(3), op(OpCode.JUMPDEST), op(OpCode.STOP));
+        assertFalse(new DeadCodeEliminator().eliminate(code, LABELS, null));
+    }
+
+    @Test
+    public void refsMoveToNextInstruction() {
+        Instruction dead = push(2);
+        dead.addRefs(Collections.singletonList(new SourceRef(0, 5, 1, "x")));
+        Instruction next = op(OpCode.JUMPDEST);
+        List<Instruction> code = code(
+                Instruction.pushLabel(0), op(OpCode.JUMP), dead,
+                Instruction.labelDef(0), next, op(OpCode.STOP));
+        assertTrue(new DeadCodeEliminator().eliminate(code, LABELS, null));
+        assertEquals(1, next.refs.size());
+    }
+}
@@ -0,0 +1,150 @@
+package co.usc.lll.asm;
+
+import co.usc.lll.MiniEVM;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static co.usc.lll.TestUtil.hex;
+import static co.usc.lll.TestUtil.push;
+import static co.usc.lll.TestUtil.run;
+import static org.junit.Assert.assertEquals;
+
+public class EVMAssemblerHelperTest {
+
+    // A helper that only relaxes branches, so that the code is fixed up as
+    // it is written
+    static EVMAssemblerHelper relaxOnly() {
+        EVMAssemblerHelper helper = new EVMAssemblerHelper();
+        helper.setOptimizer(null);
+        helper.setJumpThreader(null);
+        helper.setDeadCodeEliminator(null);
+        return helper;
+    }
+
+    static CodeBlock block(Instruction... ins) {
+        CodeBlock block = new CodeBlock(null);
+        block.startWrite();
+        for (Instruction i : ins)
+            block.write(i);
+        block.endWrite();
+        return block;
+    }
+
+    static Instruction op(OpCode op) {
+        return new Instruction(op);
+    }
+
+    // n JUMPDESTs, to move what follows
+    static Instruction[] fill(int n) {
+        Instruction[] ins = new Instruction[n];
+        for (int i = 0; i < n; i++)
+            ins[i] = op(OpCode.JUMPDEST);
+        return ins;
+    }
+
+    static Instruction[] concat(Object... parts) {
+        List<Instruction> list = new ArrayList<>();
+        for (Object p : parts)
+            if (p instanceof Instruction)
+                list.add((Instruction) p);
+            else
+                list.addAll(Arrays.asList((Instruction[]) p));
+        return list.toArray(new Instruction[0]);
+    }
+
+    @Test
+    public void nearLabelTakesPush1() {
+        EVMAssemblerHelper helper = relaxOnly();
+        int l = helper.getNewLabel(null);
+        CodeBlock block = block(
+                Instruction.pushLabel(l), op(OpCode.JUMP), push(1), op(OpCode.STOP),
+                Instruction.labelDef(l), op(OpCode.JUMPDEST), push(2), push(0), op(OpCode.SSTORE), op(OpCode.STOP));
+        helper.performFixUp(block);
+        assertEquals("600656600100" + "5b6002600055" + "00", hex(block.getCode()));
+        assertEquals(3, helper.getRelaxationSavings());
+        assertEquals(2, run(block.getCode()).load(0));
+    }
+
+    @Test
+    public void disabled() {
+        EVMAssemblerHelper helper = relaxOnly();
+        helper.setRelaxBranches(false);
+        int l = helper.getNewLabel(null);
+        CodeBlock block = block(Instruction.pushLabel(l), op(OpCode.JUMP), Instruction.labelDef(l), op(OpCode.JUMPDEST), op(OpCode.STOP));
+        helper.performFixUp(block);
+        assertEquals("630000000656" + "5b00", hex(block.getCode()));
+        assertEquals(0, helper.getRelaxationSavings());
+    }
+
+    // FAR does not fit a PUSH1. Growing its reference moves NEAR from 255 to
+    // 256, so the reference to NEAR must grow on the next round.
+    @Test
+    public void growsUntilEveryAddressFits() {
+        EVMAssemblerHelper helper = relaxOnly();
+        int near = helper.getNewLabel(null);
+        int far = helper.getNewLabel(null);
+        CodeBlock block = block(concat(
+                Instruction.pushLabel(far), op(OpCode.POP),
+                Instruction.pushLabel(near), op(OpCode.JUMP),
+                fill(249),
+                Instruction.labelDef(near), op(OpCode.JUMPDEST), push(7), push(0), op(OpCode.SSTORE), op(OpCode.STOP),
+                fill(40),
+                Instruction.labelDef(far), op(OpCode.JUMPDEST), op(OpCode.STOP)));
+        helper.performFixUp(block);
+        byte[] code = block.getCode();
+        String text = hex(code);
+        assertEquals("61" + "0130" + "50" + "61" + "0101" + "56", text.substring(0, 16));
+        assertEquals(0x5b, code[0x101] & 0xff);
+        assertEquals(0x5b, code[0x130] & 0xff);
+        assertEquals(4, helper.getRelaxationSavings());
+        MiniEVM evm = run(code);
+        assertEquals(7, evm.load(0));
+    }
+
+    // Labels and refs after a shrunk reference move with the code
+    @Test
+    public void labelsAndRefsMove() {
+        EVMAssemblerHelper helper = relaxOnly();
+        int l = helper.getNewLabel(null);
+        Instruction jumpDest = op(OpCode.JUMPDEST);
+        jumpDest.addRefs(Collections.singletonList(new SourceRef(0, 3, 1, "x")));
+        CodeBlock block = block(Instruction.pushLabel(l), op(OpCode.JUMP), Instruction.labelDef(l), jumpDest, op(OpCode.STOP));
+        helper.performFixUp(block);
+        assertEquals(l, helper.findLabelByPos(3));
+        assertEquals(3, block.refs.get(0).position);
+    }
+
+    @Test
+    public void findLabelByName() {
+        EVMAssemblerHelper helper = new EVMAssemblerHelper();
+        helper.getNewLabel(null);
+        int f = helper.getNewLabel("Foo");
+        helper.getNewLabel("FOO");
+        int g = helper.getNewLabel("G");
+        assertEquals(f, helper.findLabel("FOO")); // the first with that name
+        assertEquals(g, helper.findLabel("G"));
+        assertEquals(-1, helper.findLabel("H"));
+        assertEquals(-1, helper.findLabel(null));
+        assertEquals("Foo", helper.getLabelName(f));
+    }
+
+    @Test
+    public void findLabelByPosition() {
+        EVMAssemblerHelper helper = new EVMAssemblerHelper();
+        CodeBlock block = new CodeBlock(null);
+        int a = helper.getNewLabel(null);
+        int b = helper.getNewLabel(null);
+        int c = helper.getNewLabel(null);
+        helper.setLabelPosition(c, block, 3);
+        helper.setLabelPosition(a, block, 3);
+        helper.setLabelPosition(b, block, 7);
+        assertEquals(a, helper.findLabelByPos(3)); // the lowest id
+        assertEquals(b, helper.findLabelByPos(7));
+        assertEquals(-1, helper.findLabelByPos(5));
+        assertEquals(-1, helper.findLabelByPos(-1));
+    }
+}
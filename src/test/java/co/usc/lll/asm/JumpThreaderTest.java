@@ -0,0 +1,126 @@
+package co.usc.lll.asm;
+
+import co.usc.lll.LLLCompilationError;
+import co.usc.lll.LLLCompiler;
+import co.usc.lll.LLLCompilerConfig;
+import co.usc.lll.MiniEVM;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.List;
+
+import static co.usc.lll.TestUtil.code;
+import static co.usc.lll.TestUtil.compile;
+import static co.usc.lll.TestUtil.op;
+import static co.usc.lll.TestUtil.push;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JumpThreaderTest {
+
+    @Test
+    public void jumpToJump() {
+        EVMAssemblerHelper helper = new EVMAssemblerHelper();
+        int l0 = helper.getNewLabel(null);
+        int l1 = helper.getNewLabel(null);
+        List<Instruction> code = code(
+                Instruction.pushLabel(l0), op(OpCode.JUMP),
+                Instruction.labelDef(l0), op(OpCode.JUMPDEST), Instruction.pushLabel(l1), op(OpCode.JUMP),
+                Instruction.labelDef(l1), op(OpCode.JUMPDEST), op(OpCode.STOP));
+        JumpThreader threader = new JumpThreader();
+        assertTrue(threader.thread(code, helper));
+        assertEquals(1, threader.getThreaded());
+        assertEquals(l1, code.get(0).label);
+    }
+
+    // PUSH c PUSH L JUMP to an ISZERO and JUMPI: the jump goes to the branch
+    // the constant selects, and the constant is removed
+    @Test
+    public void constantFusedIntoBranch() {
+        for (int c = 0; c <= 1; c++) {
+            EVMAssemblerHelper helper = new EVMAssemblerHelper();
+            int l0 = helper.getNewLabel(null);
+            int l1 = helper.getNewLabel(null);
+            List<Instruction> code = code(
+                    push(c), Instruction.pushLabel(l0), op(OpCode.JUMP),
+                    Instruction.labelDef(l0), op(OpCode.JUMPDEST),
+                    op(OpCode.ISZERO), Instruction.pushLabel(l1), op(OpCode.JUMPI),
+                    push(7), op(OpCode.STOP),
+                    Instruction.labelDef(l1), op(OpCode.JUMPDEST), push(8), op(OpCode.STOP));
+            JumpThreader threader = new JumpThreader();
+            assertTrue(threader.thread(code, helper));
+            assertEquals(1, threader.getFused());
+            Instruction jump = code.get(0);
+            assertTrue(jump.isPushLabel());
+            if (c == 0) {
+                assertEquals(l1, jump.label); // ISZERO 0 jumps
+            } else {
+                // a new label before PUSH1 7
+                int at = -1;
+                for (int i = 0; i < code.size(); i++)
+                    if ((code.get(i).isLabel()) && (code.get(i).label == jump.label))
+                        at = i;
+                assertTrue(code.get(at + 1).is(OpCode.JUMPDEST));
+                assertEquals(7, code.get(at + 2).data[0]);
+            }
+        }
+    }
+
+    @Test
+    public void nothingToThread() {
+        EVMAssemblerHelper helper = new EVMAssemblerHelper();
+        int l0 = helper.getNewLabel(null);
+        List<Instruction> code = code(
+                op(OpCode.CALLER), Instruction.pushLabel(l0), op(OpCode.JUMPI), op(OpCode.STOP),
+                Instruction.labelDef(l0), op(OpCode.JUMPDEST), push(1), op(OpCode.STOP));
+        assertFalse(new JumpThreader().thread(code, helper));
+    }
+
+    static final String CONDITIONS =
+            "(seq" +
+            "  (if (&& (= @@0 1) (|| (= @@1 6) (= @@1 2)))" +
+            "    (if (> @@1 3) [[2]] 7 [[2]] 8)" +
+            "    (if (|| @@0 (&& @@1 (= @@0 0))) [[3]] 9 [[3]] 10))" +
+            "  (when (&& @@0 @@1) (unless (|| (= @@0 5) (= @@1 1)) [[4]] 11))" +
+            "  [[5]] (&& @@0 (|| @@1 0))" +
+            "  [[6]] (|| (calldataload 0) (! @@1))" +
+            "  (stop))";
+
+    static MiniEVM run(byte[] code, long s0, long s1, long data) {
+        MiniEVM evm = new MiniEVM(code);
+        evm.storage.put(BigInteger.ZERO, BigInteger.valueOf(s0));
+        evm.storage.put(BigInteger.ONE, BigInteger.valueOf(s1));
+        evm.callData = new byte[32];
+        evm.callData[31] = (byte) data;
+        evm.run();
+        return evm;
+    }
+
+    // Threaded code stores the same as the code without optimizations
+    @Test
+    public void sameBehaviourAsUnoptimized() throws LLLCompilationError {
+        byte[] plain = compile(CONDITIONS, LLLCompilerConfig.DEFAULT.withOptimize(false));
+        byte[] optimized = compile(CONDITIONS);
+        assertTrue(optimized.length < plain.length);
+        long[] values = { 0, 1, 2, 5, 6 };
+        for (long s0 : values)
+            for (long s1 : values)
+                for (long data = 0; data <= 1; data++) {
+                    MiniEVM a = run(plain, s0, s1, data);
+                    MiniEVM b = run(optimized, s0, s1, data);
+                    String where = s0 + " " + s1 + " " + data;
+                    assertEquals(where, MiniEVM.Status.STOP, a.status);
+                    assertEquals(where, a.status, b.status);
+                    assertEquals(where, a.storage, b.storage);
+                }
+    }
+
+    @Test
+    public void threadsCompiledConditions() throws LLLCompilationError {
+        LLLCompiler compiler = new LLLCompiler();
+        compiler.compile(CONDITIONS);
+        JumpThreader threader = compiler.getHelper().getJumpThreader();
+        assertTrue(threader.getFused() + threader.getThreaded() > 0);
+    }
+}
@@ -0,0 +1,131 @@
+package co.usc.lll.asm;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static co.usc.lll.TestUtil.code;
+import static co.usc.lll.TestUtil.op;
+import static co.usc.lll.TestUtil.push;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PeepholeOptimizerTest {
+
+    // The code after running only rule on it
+    static String apply(PeepholeRule rule, Instruction... ins) {
+        PeepholeOptimizer optimizer = new PeepholeOptimizer();
+        optimizer.getRules().clear();
+        optimizer.addRule(rule);
+        List<Instruction> code = code(ins);
+        optimizer.optimize(code);
+        return code.toString();
+    }
+
+    @Test
+    public void pushPop() {
+        PeepholeRule rule = new PeepholeOptimizer.PushPop();
+        assertEquals("[STOP, END]", apply(rule, push(1), op(OpCode.POP), op(OpCode.STOP)));
+        assertEquals("[STOP, END]", apply(rule, op(OpCode.DUP3), op(OpCode.POP), op(OpCode.STOP)));
+        assertEquals("[CALLER, POP, END]", apply(rule, op(OpCode.CALLER), op(OpCode.POP)));
+    }
+
+    @Test
+    public void swapPopPop() {
+        PeepholeRule rule = new PeepholeOptimizer.SwapPopPop();
+        assertEquals("[POP, POP, END]", apply(rule, op(OpCode.SWAP1), op(OpCode.POP), op(OpCode.POP)));
+        assertEquals("[SWAP2, POP, POP, END]", apply(rule, op(OpCode.SWAP2), op(OpCode.POP), op(OpCode.POP)));
+        assertEquals("[SWAP1, POP, STOP, END]", apply(rule, op(OpCode.SWAP1), op(OpCode.POP), op(OpCode.STOP)));
+    }
+
+    @Test
+    public void swapSwap() {
+        PeepholeRule rule = new PeepholeOptimizer.SwapSwap();
+        assertEquals("[STOP, END]", apply(rule, op(OpCode.SWAP2), op(OpCode.SWAP2), op(OpCode.STOP)));
+        assertEquals("[SWAP1, SWAP2, END]", apply(rule, op(OpCode.SWAP1), op(OpCode.SWAP2)));
+    }
+
+    @Test
+    public void tripleIsZero() {
+        PeepholeRule rule = new PeepholeOptimizer.TripleIsZero();
+        assertEquals("[ISZERO, END]", apply(rule, op(OpCode.ISZERO), op(OpCode.ISZERO), op(OpCode.ISZERO)));
+        // five negations are one, two stay two
+        assertEquals("[ISZERO, END]", apply(rule, op(OpCode.ISZERO), op(OpCode.ISZERO), op(OpCode.ISZERO),
+                op(OpCode.ISZERO), op(OpCode.ISZERO)));
+        assertEquals("[ISZERO, ISZERO, END]", apply(rule, op(OpCode.ISZERO), op(OpCode.ISZERO)));
+    }
+
+    @Test
+    public void isZeroBranch() {
+        PeepholeRule rule = new PeepholeOptimizer.IsZeroBranch();
+        assertEquals("[PUSH4 L0, JUMPI, END]",
+                apply(rule, op(OpCode.ISZERO), op(OpCode.ISZERO), Instruction.pushLabel(0), op(OpCode.JUMPI)));
+        assertEquals("[ISZERO, ISZERO, PUSH4 L0, JUMP, END]",
+                apply(rule, op(OpCode.ISZERO), op(OpCode.ISZERO), Instruction.pushLabel(0), op(OpCode.JUMP)));
+    }
+
+    @Test
+    public void notEqualBranch() {
+        PeepholeRule rule = new PeepholeOptimizer.NotEqualBranch();
+        assertEquals("[SUB, PUSH4 L0, JUMPI, END]",
+                apply(rule, op(OpCode.EQ), op(OpCode.ISZERO), Instruction.pushLabel(0), op(OpCode.JUMPI)));
+        assertEquals("[EQ, ISZERO, PUSH1 0x00, MSTORE, END]",
+                apply(rule, op(OpCode.EQ), op(OpCode.ISZERO), push(0), op(OpCode.MSTORE)));
+    }
+
+    @Test
+    public void jumpToNext() {
+        PeepholeRule rule = new PeepholeOptimizer.JumpToNext();
+        assertEquals("[L1:, L0:, JUMPDEST, END]",
+                apply(rule, Instruction.pushLabel(0), op(OpCode.JUMP),
+                        Instruction.labelDef(1), Instruction.labelDef(0), op(OpCode.JUMPDEST)));
+        // the condition is dropped
+        assertEquals("[CALLER, POP, L0:, JUMPDEST, END]",
+                apply(rule, op(OpCode.CALLER), Instruction.pushLabel(0), op(OpCode.JUMPI),
+                        Instruction.labelDef(0), op(OpCode.JUMPDEST)));
+        assertEquals("[PUSH4 L0, JUMP, STOP, L0:, JUMPDEST, END]",
+                apply(rule, Instruction.pushLabel(0), op(OpCode.JUMP), op(OpCode.STOP),
+                        Instruction.labelDef(0), op(OpCode.JUMPDEST)));
+    }
+
+    // A label between the instructions is a jump target, the sequence is kept
+    @Test
+    public void labelBreaksMatch() {
+        PeepholeRule rule = new PeepholeOptimizer.SwapSwap();
+        assertEquals("[SWAP1, L0:, SWAP1, END]",
+                apply(rule, op(OpCode.SWAP1), Instruction.labelDef(0), op(OpCode.SWAP1)));
+    }
+
+    // The refs of removed instructions move to the next one
+    @Test
+    public void refsKept() {
+        Instruction push = push(1);
+        push.addRefs(Collections.singletonList(new SourceRef(0, 2, 1, "x")));
+        Instruction stop = op(OpCode.STOP);
+        apply(new PeepholeOptimizer.PushPop(), push, op(OpCode.POP), stop);
+        assertNull(push.refs);
+        assertEquals(1, stop.refs.size());
+    }
+
+    // Rules run until none applies: SWAP1 POP POP leaves PUSH POP
+    @Test
+    public void rulesRunAgain() {
+        PeepholeOptimizer optimizer = new PeepholeOptimizer();
+        List<Instruction> code = code(push(1), push(2), op(OpCode.SWAP1), op(OpCode.POP), op(OpCode.POP), op(OpCode.STOP));
+        assertTrue(optimizer.optimize(code));
+        assertEquals("[STOP, END]", code.toString());
+        assertFalse(optimizer.optimize(code));
+    }
+
+    @Test
+    public void removeRule() {
+        PeepholeOptimizer optimizer = new PeepholeOptimizer();
+        assertTrue(optimizer.removeRule("push-pop"));
+        assertFalse(optimizer.removeRule("push-pop"));
+        List<Instruction> code = code(push(1), op(OpCode.POP));
+        assertFalse(optimizer.optimize(code));
+    }
+}
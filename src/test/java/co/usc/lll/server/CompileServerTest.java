@@ -0,0 +1,114 @@
+package co.usc.lll.server;
+
+import co.usc.lll.LLLCompiler;
+import co.usc.lll.LLLCompilerConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class CompileServerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    CompileServer server;
+    Thread thread;
+
+    @Before
+    public void start() throws IOException {
+        // a single compilation at a time
+        server = new CompileServer(0, 1, LLLCompilerConfig.DEFAULT, new File(folder.getRoot(), "token").toPath());
+        thread = new Thread(new Runnable() {
+            public void run() {
+                server.run();
+            }
+        });
+        thread.start();
+    }
+
+    @After
+    public void stop() throws InterruptedException {
+        server.stop();
+        thread.join();
+    }
+
+    CompileClient connect() throws IOException {
+        return new CompileClient(server.getPort(), server.getTokenFile());
+    }
+
+    @Test(timeout = 10000)
+    public void compiles() throws Exception {
+        CompileClient client = connect();
+        CompileClient.Result r = client.compileSource("test", "(seq [[0]] (add 1 2) (stop))");
+        assertNull(r.error);
+        assertArrayEquals(LLLCompiler.compileToCode("(seq [[0]] (add 1 2) (stop))"), r.code);
+        r = client.compileSource("test", "(seq (");
+        assertEquals(null, r.code);
+        client.close();
+    }
+
+    @Test(timeout = 10000)
+    public void wrongTokenRejected() throws Exception {
+        File other = folder.newFile("other");
+        Files.write(other.toPath(), "0123".getBytes(StandardCharsets.UTF_8));
+        try {
+            new CompileClient(server.getPort(), other.toPath());
+            fail();
+        } catch (IOException e) {
+            // rejected
+        }
+        // the server is still running
+        connect().close();
+    }
+
+    // Connections that do not send requests do not take the compilation
+    // threads
+    @Test(timeout = 10000)
+    public void idleClientsDoNotBlock() throws Exception {
+        List<CompileClient> idle = new ArrayList<>();
+        for (int i = 0; i < 4; i++)
+            idle.add(connect());
+        CompileClient client = connect();
+        assertNull(client.compileSource("test", "(stop)").error);
+        client.close();
+        for (CompileClient c : idle)
+            c.close();
+    }
+
+    // A connection that never sends the token is closed by the server
+    @Test(timeout = 10000)
+    public void helloTimeout() throws Exception {
+        server.helloTimeout = 200;
+        Socket silent = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+        try {
+            assertEquals(-1, silent.getInputStream().read());
+        } finally {
+            silent.close();
+        }
+        connect().close();
+    }
+
+    @Test(timeout = 10000)
+    public void shutdownRemovesToken() throws Exception {
+        connect().shutdownServer();
+        thread.join();
+        assertFalse(server.getTokenFile().toFile().exists());
+    }
+}